@@ -0,0 +1,141 @@
+package com.simmed.apigateway.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.simmed.apigateway.utils.RedisUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 基准测试的容器与数据
+ * <p>
+ * 容器只注册被测组件, @Value 取与网关相同的默认值, Redis 由内存中的数据代替;
+ * 数据由固定种子生成, 不同提交之间的结果可以直接比较
+ */
+public final class BenchmarkFixtures {
+
+    private static final long SEED = 20200315L;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * @param properties  覆盖的配置
+     * @param redisValues RedisUtil.get 返回的数据
+     * @param components  被测组件
+     */
+    public static AnnotationConfigApplicationContext context(Map<String, Object> properties, Map<String, Object> redisValues,
+                                                             Class<?>... components) {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.registerBean("redisTemplate", RedisTemplate.class, NoopRedisTemplate::new);
+        context.registerBean(RedisUtil.class, () -> new InMemoryRedisUtil(redisValues));
+        context.register(components);
+        context.refresh();
+        return context;
+    }
+
+    /**
+     * 与 SIMMED_GatewayApi_CheckList / SIMMED_GatewayApi_PermissionList 格式相同的 API 目录
+     */
+    public static String catalogJson(int count, String idPrefix) {
+        List<Map<String, Object>> apis = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> api = new LinkedHashMap<>();
+            api.put("apiId", idPrefix + i);
+            api.put("apiName", apiName(i));
+            api.put("loginCheck", 1);
+            api.put("rpcCheck", 1);
+            api.put("isOpen", 1);
+            api.put("serviceName", "service-" + (i % 20));
+            api.put("serviceGroup", "DEFAULT_GROUP");
+            api.put("path", path(i));
+            apis.add(api);
+        }
+        return JSON.toJSONString(apis);
+    }
+
+    public static String path(int index) {
+        return "/api/service" + (index % 20) + "/rpc";
+    }
+
+    public static String apiName(int index) {
+        return "Module" + (index % 50) + "Service.Method" + index;
+    }
+
+    /**
+     * token 的权限 JSON, 包含目录中每隔一个的 apiId
+     */
+    public static String permissionApisJson(int count, String idPrefix) {
+        List<String> ids = new ArrayList<>(count / 2 + 1);
+        for (int i = 0; i < count; i += 2) {
+            ids.add(idPrefix + i);
+        }
+        return JSON.toJSONString(ids);
+    }
+
+    /**
+     * 近似业务响应的 JSON, 长度为 size 字节左右
+     */
+    public static byte[] jsonPayload(int size) {
+        Random random = new Random(SEED);
+        StringBuilder json = new StringBuilder(size + 256);
+        json.append("{\"jsonrpc\":\"2.0\",\"id\":\"1\",\"result\":{\"total\":").append(size).append(",\"items\":[");
+        for (int i = 0; json.length() < size; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(100000 + random.nextInt(900000))
+                    .append(",\"name\":\"患者").append(random.nextInt(10000))
+                    .append("\",\"mobile\":\"1").append(30 + random.nextInt(60)).append(String.format("%08d", random.nextInt(100000000)))
+                    .append("\",\"amount\":").append(random.nextInt(100000) / 100.0)
+                    .append(",\"remark\":\"").append(Long.toString(random.nextLong(), 36))
+                    .append("\",\"enabled\":").append(random.nextBoolean()).append('}');
+        }
+        return json.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * JSON-RPC 请求体, params 约 paramsSize 字节; idFirst 为 false 时 id 位于 params 之后
+     */
+    public static byte[] rpcRequest(int paramsSize, boolean idFirst) {
+        String params = new String(jsonPayload(paramsSize), StandardCharsets.UTF_8);
+        String body = idFirst
+                ? "{\"jsonrpc\":\"2.0\",\"id\":\"a8f3c2\",\"method\":\"" + apiName(7) + "\",\"params\":[" + params + "]}"
+                : "{\"jsonrpc\":\"2.0\",\"params\":[" + params + "],\"method\":\"" + apiName(7) + "\",\"id\":\"a8f3c2\"}";
+        return body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 只满足注入, 不连接 Redis
+     */
+    static final class NoopRedisTemplate extends RedisTemplate<String, Object> {
+        @Override
+        public void afterPropertiesSet() {
+        }
+    }
+
+    static final class InMemoryRedisUtil extends RedisUtil {
+        private final Map<String, Object> values;
+
+        InMemoryRedisUtil(Map<String, Object> values) {
+            this.values = new HashMap<>(values);
+        }
+
+        @Override
+        public Object get(String key) {
+            return values.get(key);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.simmed.apigateway.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 运行全部(或按正则选择的)基准测试, 附带 GC 分析(每次操作的分配字节数 gc.alloc.rate.norm)
+ * <p>
+ * 结果以 JSON 写入 target/jmh-&lt;bench.label&gt;.json, bench.label 建议使用提交号, 用 {@link CompareResults} 比较
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "com\\.simmed\\.apigateway\\.benchmark\\..*";
+        String label = System.getProperty("bench.label", "local");
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .shouldFailOnError(true)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-" + label + ".json")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,100 @@
+package com.simmed.apigateway.benchmark;
+
+import com.simmed.apigateway.dto.GatewayApiDto;
+import com.simmed.apigateway.utils.GatewayApiCatalog;
+import com.simmed.apigateway.utils.PermissionSet;
+import com.simmed.apigateway.utils.PermissionSetUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AuthAndLoginFilter 中的 API 目录查找与权限校验
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CatalogBenchmark {
+
+    @Param({"200", "5000"})
+    int apis;
+
+    private AnnotationConfigApplicationContext context;
+    private GatewayApiCatalog catalog;
+    private PermissionSetUtil permissionSetUtil;
+    private String permissionApis;
+    private String[] paths;
+    private String[] methods;
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        Map<String, Object> redis = new HashMap<>();
+        redis.put(GatewayApiCatalog.CACHE_REDIS_APIS, BenchmarkFixtures.catalogJson(apis, "check-"));
+        redis.put(GatewayApiCatalog.CACHE_REDIS_Permissions, BenchmarkFixtures.catalogJson(apis, "perm-"));
+        context = BenchmarkFixtures.context(Collections.emptyMap(), redis, PermissionSetUtil.class, GatewayApiCatalog.class);
+        catalog = context.getBean(GatewayApiCatalog.class);
+        permissionSetUtil = context.getBean(PermissionSetUtil.class);
+        permissionApis = BenchmarkFixtures.permissionApisJson(apis, "perm-");
+        //请求中的方法名大小写与目录不同, 与线上一致
+        paths = new String[1024];
+        methods = new String[1024];
+        for (int i = 0; i < paths.length; i++) {
+            int index = (i * 7919) % apis;
+            paths[i] = BenchmarkFixtures.path(index);
+            methods[i] = BenchmarkFixtures.apiName(index).toLowerCase();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    private int next() {
+        cursor = (cursor + 1) & (paths.length - 1);
+        return cursor;
+    }
+
+    @Benchmark
+    public GatewayApiDto findCheckApi() {
+        int i = next();
+        return catalog.findCheckApi(paths[i], methods[i]);
+    }
+
+    @Benchmark
+    public GatewayApiDto findCheckApiMiss() {
+        int i = next();
+        return catalog.findCheckApi(paths[i], "Unknown.Method");
+    }
+
+    /**
+     * 与 AuthAndLoginFilter 相同: 两份目录各查找一次, 再用 token 的权限集合(已缓存)判断
+     */
+    @Benchmark
+    public boolean checkPermission() {
+        int i = next();
+        GatewayApiDto api = catalog.findCheckApi(paths[i], methods[i]);
+        GatewayApiDto perApi = catalog.findPermissionApi(paths[i], methods[i]);
+        PermissionSet permissionSet = permissionSetUtil.of(permissionApis);
+        return api != null && perApi != null && permissionSet.contains(perApi.getPermissionId());
+    }
+}
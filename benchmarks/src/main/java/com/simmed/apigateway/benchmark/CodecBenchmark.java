@@ -0,0 +1,151 @@
+package com.simmed.apigateway.benchmark;
+
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import com.simmed.apigateway.utils.BrotliCodec;
+import com.simmed.apigateway.utils.CpuWorkScheduler;
+import com.simmed.apigateway.utils.GzipCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ResponseBodyFilter 中的 gzip / br 编解码, 整体与按 8KB 分段的流式两种方式
+ * <p>
+ * 关闭了 CpuWorkScheduler 的转移(offloadThreshold 取最大值), 只测编解码本身, 不含线程切换
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    @Param({"1024", "16384", "262144"})
+    int size;
+
+    private AnnotationConfigApplicationContext context;
+    private GzipCodec gzipCodec;
+    private BrotliCodec brotliCodec;
+    private Encoder.Parameters brotliParameters;
+    private final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+    private byte[] payload;
+    private byte[] gzipped;
+    private byte[] brotli;
+
+    @Setup
+    public void setup() throws IOException {
+        Map<String, Object> properties = Collections.singletonMap("gateway.cpuWorker.offloadThreshold", Long.MAX_VALUE);
+        context = BenchmarkFixtures.context(properties, Collections.emptyMap(),
+                CpuWorkScheduler.class, GzipCodec.class, BrotliCodec.class);
+        gzipCodec = context.getBean(GzipCodec.class);
+        brotliCodec = context.getBean(BrotliCodec.class);
+        if (!brotliCodec.isAvailable()) {
+            throw new IllegalStateException("Brotli native library unavailable");
+        }
+        brotliParameters = brotliCodec.parameters(null);
+        payload = BenchmarkFixtures.jsonPayload(size);
+        gzipped = gzipCodec.encode(payload);
+        brotli = brotliCodec.compress(payload, brotliParameters).block();
+        if (gzipCodec.decode(gzipped).length != payload.length) {
+            throw new IllegalStateException("gzip round trip mismatch");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] gzipCompress() {
+        return gzipCodec.encode(payload);
+    }
+
+    @Benchmark
+    public byte[] gzipUncompress() throws IOException {
+        return gzipCodec.decode(gzipped);
+    }
+
+    @Benchmark
+    public int gzipStreamUncompress() {
+        return drain(gzipCodec.decode(chunks(gzipped), bufferFactory));
+    }
+
+    @Benchmark
+    public int gzipStreamCompress() {
+        return drain(gzipCodec.encode(chunks(payload), bufferFactory));
+    }
+
+    @Benchmark
+    public byte[] brotliCompress() {
+        return brotliCodec.compress(payload, brotliParameters).block();
+    }
+
+    @Benchmark
+    public byte[] brotliUncompress() {
+        return brotliCodec.decompress(brotli).block();
+    }
+
+    /**
+     * 上游 gzip 响应转为 br 输出: 流式解压后再流式压缩
+     */
+    @Benchmark
+    public int gzipToBrotliStream() {
+        return drain(brotliCodec.encode(gzipCodec.decode(chunks(gzipped), bufferFactory), bufferFactory, brotliParameters));
+    }
+
+    @Benchmark
+    public byte[] brotliRoundTrip() {
+        return brotliCodec.compress(payload, brotliParameters)
+                .flatMap(brotliCodec::decompress)
+                .block();
+    }
+
+    /**
+     * 与 Netty 读到的响应体一样按 8KB 分段
+     */
+    private Flux<DataBuffer> chunks(byte[] content) {
+        List<DataBuffer> buffers = new ArrayList<>(content.length / CHUNK_SIZE + 1);
+        for (int offset = 0; offset < content.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, content.length - offset);
+            DataBuffer buffer = bufferFactory.allocateBuffer(length);
+            buffer.write(content, offset, length);
+            buffers.add(buffer);
+        }
+        return Flux.fromIterable(buffers);
+    }
+
+    private static int drain(Flux<DataBuffer> output) {
+        Integer bytes = output.reduce(0, (total, buffer) -> {
+            int length = buffer.readableByteCount();
+            DataBufferUtils.release(buffer);
+            return total + length;
+        }).block();
+        return bytes == null ? 0 : bytes;
+    }
+}
@@ -0,0 +1,105 @@
+package com.simmed.apigateway.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 比较两次 JMH JSON 结果: 每个基准(含参数)的得分、误差与每次操作分配字节数的变化
+ * <p>
+ * 用法: CompareResults &lt;baseline.json&gt; &lt;current.json&gt;; 变化小于两次结果误差之和的标记为 ~
+ */
+public final class CompareResults {
+
+    private static final String ALLOC_METRIC = "gc.alloc.rate.norm";
+
+    private CompareResults() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: CompareResults <baseline.json> <current.json>");
+            System.exit(1);
+        }
+        Map<String, JSONObject> baseline = load(args[0]);
+        Map<String, JSONObject> current = load(args[1]);
+        System.out.println(String.format("%-90s %14s %14s %9s %14s %14s",
+                "benchmark", "baseline", "current", "change", "alloc(B/op)", "alloc change"));
+        for (Map.Entry<String, JSONObject> entry : current.entrySet()) {
+            JSONObject before = baseline.get(entry.getKey());
+            JSONObject after = entry.getValue();
+            JSONObject afterMetric = after.getJSONObject("primaryMetric");
+            double afterScore = afterMetric.getDoubleValue("score");
+            double afterAlloc = alloc(after);
+            if (before == null) {
+                System.out.println(String.format("%-90s %14s %14.3f %9s %14.1f %14s",
+                        entry.getKey(), "-", afterScore, "new", afterAlloc, "-"));
+                continue;
+            }
+            JSONObject beforeMetric = before.getJSONObject("primaryMetric");
+            double beforeScore = beforeMetric.getDoubleValue("score");
+            double error = error(beforeMetric) + error(afterMetric);
+            String change = Math.abs(afterScore - beforeScore) <= error ? "~" : percent(beforeScore, afterScore);
+            double beforeAlloc = alloc(before);
+            System.out.println(String.format("%-90s %14.3f %14.3f %9s %14.1f %14s",
+                    entry.getKey(), beforeScore, afterScore, change, afterAlloc, percent(beforeAlloc, afterAlloc)));
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.println(String.format("%-90s %14s", key, "removed"));
+            }
+        }
+    }
+
+    /**
+     * 按 "benchmark(参数)" 索引
+     */
+    private static Map<String, JSONObject> load(String file) throws IOException {
+        JSONArray results = JSON.parseArray(new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8));
+        Map<String, JSONObject> index = new LinkedHashMap<>();
+        for (int i = 0; i < results.size(); i++) {
+            JSONObject result = results.getJSONObject(i);
+            String name = result.getString("benchmark").replace("com.simmed.apigateway.benchmark.", "");
+            JSONObject params = result.getJSONObject("params");
+            if (params != null && !params.isEmpty()) {
+                name += new TreeMap<>(params.getInnerMap());
+            }
+            index.put(name + " " + result.getJSONObject("primaryMetric").getString("scoreUnit"), result);
+        }
+        return index;
+    }
+
+    private static double error(JSONObject metric) {
+        double error = metric.getDoubleValue("scoreError");
+        return Double.isNaN(error) ? 0 : error;
+    }
+
+    private static double alloc(JSONObject result) {
+        JSONObject secondary = result.getJSONObject("secondaryMetrics");
+        if (secondary == null) {
+            return Double.NaN;
+        }
+        //JMH 的指标名带有前缀 "·"
+        for (String key : secondary.keySet()) {
+            if (key.endsWith(ALLOC_METRIC)) {
+                return secondary.getJSONObject(key).getDoubleValue("score");
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static String percent(double before, double after) {
+        if (Double.isNaN(before) || Double.isNaN(after) || before == 0) {
+            return "-";
+        }
+        return String.format("%+.1f%%", (after - before) * 100 / before);
+    }
+}
@@ -0,0 +1,92 @@
+package com.simmed.apigateway.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.simmed.apigateway.dto.RpcRequestInfo;
+import com.simmed.apigateway.utils.JsonRpcScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RequestBodyFilter 中从 JSON-RPC 请求体取得 method 与 id
+ * <p>
+ * fastjsonParse 为整体解析请求体的做法, 作为对照
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonRpcScannerBenchmark {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    @Param({"256", "65536"})
+    int paramsSize;
+
+    //id 与 method 位于 params 之前或之后
+    @Param({"true", "false"})
+    boolean idFirst;
+
+    private byte[] body;
+    private List<DataBuffer> chunks;
+
+    @Setup
+    public void setup() {
+        body = BenchmarkFixtures.rpcRequest(paramsSize, idFirst);
+        DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+        chunks = new ArrayList<>();
+        for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, body.length - offset);
+            chunks.add(bufferFactory.wrap(body).slice(offset, length));
+        }
+        RpcRequestInfo info = scanBuffers();
+        if (!BenchmarkFixtures.apiName(7).equals(info.getMethod())) {
+            throw new IllegalStateException("unexpected method:" + info.getMethod());
+        }
+    }
+
+    @Benchmark
+    public RpcRequestInfo scanBytes() {
+        JsonRpcScanner scanner = new JsonRpcScanner();
+        scanner.feed(body, 0, body.length);
+        return scanner.result();
+    }
+
+    /**
+     * 与请求体到达时一样逐段扫描, 扫描完毕后不再读取后续分段
+     */
+    @Benchmark
+    public RpcRequestInfo scanBuffers() {
+        JsonRpcScanner scanner = new JsonRpcScanner();
+        for (DataBuffer chunk : chunks) {
+            if (scanner.feed(chunk)) {
+                break;
+            }
+        }
+        return scanner.result();
+    }
+
+    @Benchmark
+    public String fastjsonParse() {
+        JSONObject json = JSON.parseObject(new String(body, StandardCharsets.UTF_8));
+        return json.getString("method") + json.getString("id");
+    }
+}
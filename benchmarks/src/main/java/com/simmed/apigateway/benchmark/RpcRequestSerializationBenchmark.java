@@ -0,0 +1,93 @@
+package com.simmed.apigateway.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.simmed.apigateway.dto.ApiRuleDto;
+import com.simmed.apigateway.dto.ExecDatamaskByApiRuleRequest;
+import com.simmed.apigateway.dto.RpcRequest;
+import com.simmed.apigateway.dto.RpcResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DataMaskUtil 调用脱敏服务时 RpcRequest 的序列化与 RpcResponse 的反序列化
+ * <p>
+ * WebClient 使用 Jackson 编解码, ObjectMapper 的配置与 WebFlux 默认的编解码器相同
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RpcRequestSerializationBenchmark {
+
+    private static final String RPC_METHOD = "execDatamaskByApiRule";
+
+    //待脱敏的响应大小
+    @Param({"1024", "16384"})
+    int size;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private ExecDatamaskByApiRuleRequest request;
+    private byte[] response;
+
+    @Setup
+    public void setup() throws IOException {
+        String value = new String(BenchmarkFixtures.jsonPayload(size), StandardCharsets.UTF_8);
+        List<ApiRuleDto> rules = new ArrayList<>();
+        String[] fields = {"name", "mobile", "amount", "remark", "id"};
+        for (int i = 0; i < fields.length; i++) {
+            ApiRuleDto rule = new ApiRuleDto();
+            rule.setApiId("api-" + i);
+            rule.setFieldName(fields[i]);
+            rule.setRuleId(i + 1);
+            rule.setUserId("user-1");
+            rule.setAppId("app-1");
+            rule.setAppType("weapp");
+            rules.add(rule);
+        }
+        request = new ExecDatamaskByApiRuleRequest();
+        request.setValue(value);
+        request.setApiRules(rules);
+        Map<String, Object> rpcResponse = new LinkedHashMap<>();
+        rpcResponse.put("id", "1");
+        rpcResponse.put("jsonrpc", "2.0");
+        rpcResponse.put("result", value);
+        response = objectMapper.writeValueAsBytes(rpcResponse);
+    }
+
+    /**
+     * 与 DataMaskUtil 相同: 每次调用构造 RpcRequest 后序列化
+     */
+    @Benchmark
+    public byte[] serializeRequest() throws IOException {
+        List<Object> list = new ArrayList<>();
+        list.add(request);
+        RpcRequest req = RpcRequest.builder().method(RPC_METHOD).params(list).build();
+        return objectMapper.writeValueAsBytes(req);
+    }
+
+    @Benchmark
+    public String deserializeResponse() throws IOException {
+        RpcResponse<?> ret = objectMapper.readValue(response, RpcResponse.class);
+        return ret.getResult().toString();
+    }
+}
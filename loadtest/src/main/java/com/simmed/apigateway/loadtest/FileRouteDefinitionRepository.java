@@ -0,0 +1,59 @@
+package com.simmed.apigateway.loadtest;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.cloud.gateway.route.RouteDefinitionRepository;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 从文件读取路由, 代替 NacosRouteDefinitionRepository
+ * <p>
+ * 文件内容与 Nacos 中的路由配置格式相同(RouteDefinition 的 JSON 数组), 其中的 ${upstream} 替换为模拟上游的地址
+ */
+@Slf4j
+public class FileRouteDefinitionRepository implements RouteDefinitionRepository {
+
+    private final List<RouteDefinition> routes;
+
+    public FileRouteDefinitionRepository(Resource resource, String upstream) throws IOException {
+        String content;
+        try (InputStream in = resource.getInputStream()) {
+            content = StreamUtils.copyToString(in, StandardCharsets.UTF_8).replace("${upstream}", upstream);
+        }
+        JSONArray array = JSON.parseArray(content);
+        List<RouteDefinition> definitions = new ArrayList<>(array.size());
+        for (Object item : array) {
+            definitions.add(((JSONObject) item).toJavaObject(RouteDefinition.class));
+        }
+        routes = Collections.unmodifiableList(definitions);
+        log.info("load test routes loaded from {}, routes:{}", resource, routes.size());
+    }
+
+    @Override
+    public Flux<RouteDefinition> getRouteDefinitions() {
+        return Flux.fromIterable(routes);
+    }
+
+    @Override
+    public Mono<Void> save(Mono<RouteDefinition> route) {
+        return Mono.error(new UnsupportedOperationException("file routes are read-only"));
+    }
+
+    @Override
+    public Mono<Void> delete(Mono<String> routeId) {
+        return Mono.error(new UnsupportedOperationException("file routes are read-only"));
+    }
+}
@@ -0,0 +1,262 @@
+package com.simmed.apigateway.loadtest;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.simmed.apigateway.ApiGatewayApplication;
+import com.simmed.apigateway.dto.ApiRuleDto;
+import com.simmed.apigateway.dto.GatewayApiDto;
+import com.simmed.apigateway.utils.GatewayApiCatalog;
+import com.simmed.apigateway.utils.GatewayWarmUp;
+import com.simmed.apigateway.utils.TokenCacheUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 端到端压测: 在本进程内启动 Redis 替身、模拟上游与模拟脱敏服务, 按不同的过滤器配置依次启动网关,
+ * 发送混合流量并输出每种配置的吞吐量与 p50 / p99 / p999 延迟
+ * <p>
+ * 参数均为系统属性:
+ * loadtest.configurations 要运行的配置, 逗号分隔, 默认全部(见 CONFIGURATIONS);
+ * loadtest.concurrency 并发请求数, 默认 64;
+ * loadtest.warmupSeconds / loadtest.durationSeconds 每种配置的预热与统计时长, 默认 10 / 30 秒;
+ * loadtest.upstreamDelayMs 模拟上游的处理延迟, 默认 5 毫秒;
+ * loadtest.datamaskDelayMs 模拟脱敏服务的处理延迟, 默认 2 毫秒;
+ * loadtest.routes 路由文件, 默认 classpath:loadtest-routes.json;
+ * loadtest.label 结果文件名中的标签, 结果写入 target/loadtest-&lt;label&gt;.json
+ */
+@Slf4j
+public final class LoadTest {
+
+    /**
+     * 各配置相对默认配置覆盖的网关参数
+     */
+    static final Map<String, Map<String, String>> CONFIGURATIONS = new LinkedHashMap<>();
+
+    static {
+        CONFIGURATIONS.put("default", Collections.emptyMap());
+        CONFIGURATIONS.put("no-response-cache", overrides(
+                "gateway.responseCache.enabled", "false",
+                "gateway.coalescing.enabled", "false"));
+        CONFIGURATIONS.put("no-route-index", overrides("gateway.routeIndex.enabled", "false"));
+        CONFIGURATIONS.put("no-token-cache", overrides("gateway.tokenCache.enabled", "false"));
+        CONFIGURATIONS.put("no-compression", overrides("gateway.compression.enabled", "false"));
+        CONFIGURATIONS.put("local-datamask", overrides("gateway.datamask.localRules", "1:MOBILE,4:NAME"));
+        //限额足够大, 只衡量限流本身的开销
+        CONFIGURATIONS.put("rate-limit", overrides(
+                "gateway.rateLimit.token.rate", "1000000",
+                "gateway.rateLimit.token.burst", "1000000",
+                "gateway.rateLimit.api.rate", "1000000",
+                "gateway.rateLimit.api.burst", "1000000"));
+    }
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = Integer.getInteger("loadtest.concurrency", 64);
+        Duration warmup = Duration.ofSeconds(Long.getLong("loadtest.warmupSeconds", 10));
+        Duration duration = Duration.ofSeconds(Long.getLong("loadtest.durationSeconds", 30));
+        long upstreamDelay = Long.getLong("loadtest.upstreamDelayMs", 5);
+        long datamaskDelay = Long.getLong("loadtest.datamaskDelayMs", 2);
+        String label = System.getProperty("loadtest.label", "current");
+        List<String> names = new ArrayList<>();
+        for (String name : System.getProperty("loadtest.configurations", String.join(",", CONFIGURATIONS.keySet())).split(",")) {
+            names.add(name.trim());
+        }
+        for (String name : names) {
+            if (!CONFIGURATIONS.containsKey(name)) {
+                throw new IllegalArgumentException("unknown configuration: " + name + ", available: " + CONFIGURATIONS.keySet());
+            }
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        try (RedisStandIn redis = new RedisStandIn();
+             StubUpstream upstream = new StubUpstream();
+             StubDatamask datamask = new StubDatamask(datamaskDelay)) {
+            int redisPort = redis.start();
+            int upstreamPort = upstream.start();
+            int datamaskPort = datamask.start();
+            seed(redis);
+
+            for (String name : names) {
+                Map<String, String> properties = new LinkedHashMap<>();
+                properties.put("server.port", "0");
+                properties.put("spring.main.banner-mode", "off");
+                properties.put("spring.redis.host", "127.0.0.1");
+                properties.put("spring.redis.port", String.valueOf(redisPort));
+                properties.put("spring.cloud.nacos.config.enabled", "false");
+                properties.put("spring.cloud.nacos.discovery.enabled", "false");
+                properties.put("spring.cloud.service-registry.auto-registration.enabled", "false");
+                properties.put("spring.zipkin.enabled", "false");
+                properties.put("gateway.dynamicRoute.enabled", "false");
+                properties.put("gateway.dynamicRoute.dataId", "loadtest");
+                properties.put("gateway.dynamicRoute.group", "loadtest");
+                //Redis 替身不支持脚本
+                properties.put("gateway.rateLimit.redis.enabled", "false");
+                properties.put("loadtest.upstreamPort", String.valueOf(upstreamPort));
+                properties.put("loadtest.datamaskPort", String.valueOf(datamaskPort));
+                String routes = System.getProperty("loadtest.routes");
+                if (routes != null) {
+                    properties.put("loadtest.routes", routes);
+                }
+                properties.putAll(CONFIGURATIONS.get(name));
+                results.add(run(name, properties, concurrency, warmup, duration, upstreamDelay));
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("label", label);
+        report.put("concurrency", concurrency);
+        report.put("warmupSeconds", warmup.getSeconds());
+        report.put("durationSeconds", duration.getSeconds());
+        report.put("upstreamDelayMs", upstreamDelay);
+        report.put("datamaskDelayMs", datamaskDelay);
+        report.put("configurations", results);
+        Path file = Paths.get("target", "loadtest-" + label + ".json");
+        Files.createDirectories(file.getParent());
+        Files.write(file, JSON.toJSONString(report, SerializerFeature.PrettyFormat).getBytes(StandardCharsets.UTF_8));
+        System.out.println("results written to " + file.toAbsolutePath());
+    }
+
+    private static Map<String, Object> run(String name, Map<String, String> properties, int concurrency, Duration warmup,
+                                           Duration duration, long upstreamDelay) throws InterruptedException {
+        List<String> args = new ArrayList<>(properties.size());
+        properties.forEach((key, value) -> args.add("--" + key + "=" + value));
+        log.info("starting gateway for configuration {}", name);
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(ApiGatewayApplication.class)
+                .run(args.toArray(new String[0]));
+        try {
+            awaitWarmUp(context.getBean(GatewayWarmUp.class), Duration.ofMinutes(2));
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            try (TrafficDriver driver = new TrafficDriver("http://127.0.0.1:" + port, Scenario.defaults(), concurrency, upstreamDelay, 42)) {
+                driver.run(warmup);
+                TrafficDriver.Result result = driver.run(duration);
+                print(name, result);
+                return toMap(name, result);
+            }
+        } finally {
+            context.close();
+        }
+    }
+
+    private static void awaitWarmUp(GatewayWarmUp warmUp, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (!Status.UP.equals(warmUp.health().getStatus())) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("gateway warm up did not finish within " + timeout);
+            }
+            Thread.sleep(200);
+        }
+    }
+
+    /**
+     * 写入 API 目录、会话、权限与脱敏规则, 与生产环境中其他系统写入 Redis 的格式一致
+     */
+    private static void seed(RedisStandIn redis) {
+        redis.set(GatewayApiCatalog.CACHE_REDIS_APIS, JSON.toJSONString(Arrays.asList(
+                api("lt-login", "LoadTest.Login", "/loadtest/gzip/rpc", null),
+                api("lt-mask", "LoadTest.Mask", "/loadtest/plain/rpc", null),
+                api("lt-cached", "LoadTest.Cached", "/loadtest/plain/rpc", 5))));
+        redis.set(GatewayApiCatalog.CACHE_REDIS_Permissions, JSON.toJSONString(Collections.singletonList(
+                api("lt-perm", "LoadTest.Permission", "/loadtest/br/rpc", null))));
+
+        redis.set(Scenario.TOKEN, "1");
+        redis.set(Scenario.TOKEN + TokenCacheUtil.PermissionCacheKey, JSON.toJSONString(Collections.singletonList("lt-perm")));
+        redis.set(Scenario.TOKEN + TokenCacheUtil.ApiDataMaskCacheKey, JSON.toJSONString(Arrays.asList(
+                rule("lt-mask", "mobile", 1),
+                rule("lt-mask", "name", 4))));
+        redis.set(Scenario.DENIED_TOKEN, "1");
+    }
+
+    private static GatewayApiDto api(String apiId, String apiName, String path, Integer cacheSeconds) {
+        GatewayApiDto api = new GatewayApiDto();
+        api.setApiId(apiId);
+        api.setApiName(apiName);
+        api.setPath(path);
+        api.setCacheSeconds(cacheSeconds);
+        return api;
+    }
+
+    private static ApiRuleDto rule(String apiId, String fieldName, int ruleId) {
+        ApiRuleDto rule = new ApiRuleDto();
+        rule.setApiId(apiId);
+        rule.setFieldName(fieldName);
+        rule.setRuleId(ruleId);
+        rule.setUserId("loadtest");
+        rule.setAppId("loadtest");
+        return rule;
+    }
+
+    private static void print(String name, TrafficDriver.Result result) {
+        double seconds = result.getElapsedNanos() / 1e9;
+        System.out.println();
+        System.out.println("== " + name + " (" + String.format("%.1f", seconds) + "s)");
+        System.out.println(String.format("%-18s %10s %8s %8s %10s %9s %9s %9s %9s",
+                "scenario", "requests", "errors", "429", "req/s", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)"));
+        result.getStats().forEach((scenario, stats) -> System.out.println(row(scenario, stats, seconds)));
+        System.out.println(row("total", result.total(), seconds));
+    }
+
+    private static String row(String name, TrafficDriver.Stats stats, double seconds) {
+        Histogram latency = stats.latency();
+        return String.format("%-18s %10d %8d %8d %10.1f %9.2f %9.2f %9.2f %9.2f", name, stats.requests(), stats.errors(),
+                stats.rejected(), stats.requests() / seconds, millis(latency, 50), millis(latency, 99), millis(latency, 99.9),
+                latency.getMaxValue() / 1000.0);
+    }
+
+    private static double millis(Histogram latency, double percentile) {
+        return latency.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static Map<String, Object> toMap(String name, TrafficDriver.Result result) {
+        double seconds = result.getElapsedNanos() / 1e9;
+        Map<String, Object> scenarios = new LinkedHashMap<>();
+        result.getStats().forEach((scenario, stats) -> scenarios.put(scenario, toMap(stats, seconds)));
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("name", name);
+        map.put("overrides", CONFIGURATIONS.get(name));
+        map.put("elapsedSeconds", seconds);
+        map.put("total", toMap(result.total(), seconds));
+        map.put("scenarios", scenarios);
+        return map;
+    }
+
+    private static Map<String, Object> toMap(TrafficDriver.Stats stats, double seconds) {
+        Histogram latency = stats.latency();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("requests", stats.requests());
+        map.put("errors", stats.errors());
+        map.put("rejected", stats.rejected());
+        map.put("bytes", stats.bytes());
+        map.put("throughput", stats.requests() / seconds);
+        map.put("p50Ms", millis(latency, 50));
+        map.put("p99Ms", millis(latency, 99));
+        map.put("p999Ms", millis(latency, 99.9));
+        map.put("maxMs", latency.getMaxValue() / 1000.0);
+        return map;
+    }
+
+    private static Map<String, String> overrides(String... pairs) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            map.put(pairs[i], pairs[i + 1]);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+}
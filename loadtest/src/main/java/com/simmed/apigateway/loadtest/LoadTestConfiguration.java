@@ -0,0 +1,84 @@
+package com.simmed.apigateway.loadtest;
+
+import com.alibaba.nacos.api.naming.NamingService;
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 压测时替换外部依赖: 路由从文件读取, 服务发现只返回模拟的脱敏服务
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "loadtest", name = "upstreamPort")
+public class LoadTestConfiguration {
+
+    @Value("${loadtest.upstreamPort}")
+    private int upstreamPort;
+    @Value("${loadtest.datamaskPort}")
+    private int datamaskPort;
+    @Value("${loadtest.routes:classpath:loadtest-routes.json}")
+    private Resource routes;
+
+    @Bean
+    public FileRouteDefinitionRepository fileRouteDefinitionRepository() throws IOException {
+        return new FileRouteDefinitionRepository(routes, "http://127.0.0.1:" + upstreamPort);
+    }
+
+    /**
+     * 只实现 DataMaskUtil 用到的查询, 其余方法返回空值
+     */
+    @Bean
+    @Primary
+    public NamingService namingService() {
+        Instance instance = new Instance();
+        instance.setIp("127.0.0.1");
+        instance.setPort(datamaskPort);
+        instance.setHealthy(true);
+        instance.setEnabled(true);
+        instance.setWeight(1);
+        instance.setServiceName("datamask");
+        List<Instance> instances = Collections.singletonList(instance);
+        return (NamingService) Proxy.newProxyInstance(NamingService.class.getClassLoader(), new Class<?>[]{NamingService.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "selectInstances":
+                        case "getAllInstances":
+                            return instances;
+                        case "selectOneHealthyInstance":
+                            return instance;
+                        case "getServerStatus":
+                            return "UP";
+                        case "toString":
+                            return "LoadTestNamingService";
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
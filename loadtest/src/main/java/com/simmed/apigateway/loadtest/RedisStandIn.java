@@ -0,0 +1,316 @@
+package com.simmed.apigateway.loadtest;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的 Redis 替身, 实现 RESP2 协议中网关用到的字符串命令与订阅
+ * <p>
+ * 支持 GET / SET(EX、PX、NX、XX) / SETEX / MGET / EXISTS / DEL / EXPIRE / PEXPIRE / TTL / PTTL / INCRBY 及连接管理命令;
+ * SUBSCRIBE 只返回订阅确认, PUBLISH 不投递。不支持脚本: EVALSHA / EVAL 返回错误, 限流按本地令牌桶降级,
+ * 因此压测时应关闭 gateway.rateLimit.redis.enabled
+ */
+@Slf4j
+public final class RedisStandIn implements Closeable {
+
+    private final Map<String, Entry> data = new ConcurrentHashMap<>();
+    private final EventLoopGroup group = new NioEventLoopGroup(2);
+    private Channel channel;
+
+    public int start() throws InterruptedException {
+        channel = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new RespDecoder(), new CommandHandler());
+                    }
+                })
+                .bind("127.0.0.1", 0)
+                .sync()
+                .channel();
+        int port = ((InetSocketAddress) channel.localAddress()).getPort();
+        log.info("redis stand-in listening on {}", port);
+        return port;
+    }
+
+    public void set(String key, String value) {
+        data.put(key, new Entry(value, 0));
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            channel.close().syncUninterruptibly();
+        }
+        group.shutdownGracefully();
+    }
+
+    private String get(String key) {
+        Entry entry = data.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireAt > 0 && entry.expireAt <= System.currentTimeMillis()) {
+            data.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private void reply(ChannelHandlerContext ctx, List<String> command) {
+        String name = command.get(0).toUpperCase(Locale.ROOT);
+        StringBuilder out = new StringBuilder();
+        switch (name) {
+            case "PING":
+                out.append("+PONG\r\n");
+                break;
+            case "SELECT":
+            case "CLIENT":
+            case "AUTH":
+            case "READONLY":
+            case "QUIT":
+                out.append("+OK\r\n");
+                break;
+            case "GET":
+                bulk(out, get(command.get(1)));
+                break;
+            case "SET":
+                set(out, command);
+                break;
+            case "SETEX":
+                data.put(command.get(1), new Entry(command.get(3), System.currentTimeMillis() + Long.parseLong(command.get(2)) * 1000));
+                out.append("+OK\r\n");
+                break;
+            case "PSETEX":
+                data.put(command.get(1), new Entry(command.get(3), System.currentTimeMillis() + Long.parseLong(command.get(2))));
+                out.append("+OK\r\n");
+                break;
+            case "MGET":
+                out.append('*').append(command.size() - 1).append("\r\n");
+                for (int i = 1; i < command.size(); i++) {
+                    bulk(out, get(command.get(i)));
+                }
+                break;
+            case "EXISTS": {
+                int count = 0;
+                for (int i = 1; i < command.size(); i++) {
+                    if (get(command.get(i)) != null) {
+                        count++;
+                    }
+                }
+                out.append(':').append(count).append("\r\n");
+                break;
+            }
+            case "DEL": {
+                int count = 0;
+                for (int i = 1; i < command.size(); i++) {
+                    if (data.remove(command.get(i)) != null) {
+                        count++;
+                    }
+                }
+                out.append(':').append(count).append("\r\n");
+                break;
+            }
+            case "EXPIRE":
+            case "PEXPIRE": {
+                long millis = Long.parseLong(command.get(2)) * ("EXPIRE".equals(name) ? 1000 : 1);
+                String value = get(command.get(1));
+                if (value != null) {
+                    data.put(command.get(1), new Entry(value, System.currentTimeMillis() + millis));
+                }
+                out.append(':').append(value == null ? 0 : 1).append("\r\n");
+                break;
+            }
+            case "TTL":
+            case "PTTL": {
+                Entry entry = get(command.get(1)) == null ? null : data.get(command.get(1));
+                long ttl = entry == null ? -2 : entry.expireAt == 0 ? -1 : entry.expireAt - System.currentTimeMillis();
+                if (ttl > 0 && "TTL".equals(name)) {
+                    ttl = ttl / 1000;
+                }
+                out.append(':').append(ttl).append("\r\n");
+                break;
+            }
+            case "INCR":
+            case "INCRBY": {
+                long delta = command.size() > 2 ? Long.parseLong(command.get(2)) : 1;
+                long value;
+                synchronized (data) {
+                    String current = get(command.get(1));
+                    value = (current == null ? 0 : Long.parseLong(current)) + delta;
+                    data.put(command.get(1), new Entry(String.valueOf(value), 0));
+                }
+                out.append(':').append(value).append("\r\n");
+                break;
+            }
+            case "SUBSCRIBE":
+            case "PSUBSCRIBE":
+                for (int i = 1; i < command.size(); i++) {
+                    out.append("*3\r\n");
+                    bulk(out, name.toLowerCase(Locale.ROOT));
+                    bulk(out, command.get(i));
+                    out.append(':').append(i).append("\r\n");
+                }
+                break;
+            case "UNSUBSCRIBE":
+            case "PUNSUBSCRIBE":
+                for (int i = 1; i < command.size(); i++) {
+                    out.append("*3\r\n");
+                    bulk(out, name.toLowerCase(Locale.ROOT));
+                    bulk(out, command.get(i));
+                    out.append(":0\r\n");
+                }
+                break;
+            case "PUBLISH":
+                out.append(":0\r\n");
+                break;
+            case "EVALSHA":
+                out.append("-NOSCRIPT No matching script. Please use EVAL.\r\n");
+                break;
+            case "INFO":
+                bulk(out, "# Server\r\nredis_version:5.0.0\r\nredis_mode:standalone\r\n");
+                break;
+            default:
+                out.append("-ERR unknown command '").append(command.get(0)).append("'\r\n");
+        }
+        ctx.writeAndFlush(ctx.alloc().buffer().writeBytes(out.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void set(StringBuilder out, List<String> command) {
+        String key = command.get(1);
+        long expireAt = 0;
+        boolean nx = false;
+        boolean xx = false;
+        for (int i = 3; i < command.size(); i++) {
+            String option = command.get(i).toUpperCase(Locale.ROOT);
+            if ("EX".equals(option)) {
+                expireAt = System.currentTimeMillis() + Long.parseLong(command.get(++i)) * 1000;
+            } else if ("PX".equals(option)) {
+                expireAt = System.currentTimeMillis() + Long.parseLong(command.get(++i));
+            } else if ("NX".equals(option)) {
+                nx = true;
+            } else if ("XX".equals(option)) {
+                xx = true;
+            }
+        }
+        boolean exists = get(key) != null;
+        if ((nx && exists) || (xx && !exists)) {
+            out.append("$-1\r\n");
+            return;
+        }
+        data.put(key, new Entry(command.get(2), expireAt));
+        out.append("+OK\r\n");
+    }
+
+    private static void bulk(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("$-1\r\n");
+            return;
+        }
+        out.append('$').append(value.getBytes(StandardCharsets.UTF_8).length).append("\r\n").append(value).append("\r\n");
+    }
+
+    private static final class Entry {
+        final String value;
+        //过期时间(毫秒), 0 为不过期
+        final long expireAt;
+
+        Entry(String value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 解析客户端发送的 RESP 数组(多条批量字符串), 数据不完整时等待后续数据
+     */
+    private static final class RespDecoder extends ByteToMessageDecoder {
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            while (in.isReadable()) {
+                in.markReaderIndex();
+                List<String> command = readCommand(in);
+                if (command == null) {
+                    in.resetReaderIndex();
+                    return;
+                }
+                out.add(command);
+            }
+        }
+
+        private static List<String> readCommand(ByteBuf in) {
+            String header = readLine(in);
+            if (header == null) {
+                return null;
+            }
+            if (header.isEmpty() || header.charAt(0) != '*') {
+                //内联命令, 按空格分隔
+                List<String> inline = new ArrayList<>();
+                for (String part : header.trim().split("\\s+")) {
+                    if (!part.isEmpty()) {
+                        inline.add(part);
+                    }
+                }
+                return inline.isEmpty() ? null : inline;
+            }
+            int count = Integer.parseInt(header.substring(1));
+            List<String> command = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String length = readLine(in);
+                if (length == null) {
+                    return null;
+                }
+                int size = Integer.parseInt(length.substring(1));
+                if (in.readableBytes() < size + 2) {
+                    return null;
+                }
+                command.add(in.toString(in.readerIndex(), size, StandardCharsets.UTF_8));
+                in.skipBytes(size + 2);
+            }
+            return command;
+        }
+
+        private static String readLine(ByteBuf in) {
+            int end = in.indexOf(in.readerIndex(), in.writerIndex(), (byte) '\n');
+            if (end < 0) {
+                return null;
+            }
+            String line = in.toString(in.readerIndex(), end - in.readerIndex(), StandardCharsets.UTF_8);
+            in.readerIndex(end + 1);
+            return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+        }
+    }
+
+    private final class CommandHandler extends SimpleChannelInboundHandler<List<String>> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, List<String> command) {
+            try {
+                reply(ctx, command);
+            } catch (RuntimeException e) {
+                log.warn("redis stand-in command error:{}", command, e);
+                ctx.writeAndFlush(ctx.alloc().buffer().writeBytes(("-ERR " + e + "\r\n").getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.simmed.apigateway.loadtest;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 压测流量中的一类请求, weight 为在混合流量中所占的权重
+ */
+@Getter
+@AllArgsConstructor
+public final class Scenario {
+
+    public static final String TOKEN = "loadtest-token";
+    public static final String DENIED_TOKEN = "loadtest-denied";
+
+    private final String name;
+    private final int weight;
+    private final String path;
+    //JSON-RPC method, 与 API 目录中的 apiName 对应
+    private final String method;
+    private final String token;
+    private final String acceptEncoding;
+    //上游响应大小(字节)
+    private final int responseSize;
+    //期望的 HTTP 状态码, 其他状态码(限流的 429 除外)计为错误
+    private final int expectedStatus;
+
+    /**
+     * 默认的混合流量: 以开放接口为主, 其次是登录、权限、脱敏与缓存接口
+     */
+    public static List<Scenario> defaults() {
+        return Collections.unmodifiableList(Arrays.asList(
+                new Scenario("open-plain", 30, "/loadtest/plain/rpc", "LoadTest.Open", null, "gzip", 2048, 200),
+                new Scenario("open-gzip-to-br", 15, "/loadtest/gzip/rpc", "LoadTest.Open", null, "br", 16384, 200),
+                new Scenario("open-br-identity", 10, "/loadtest/br/rpc", "LoadTest.Open", null, null, 4096, 200),
+                new Scenario("login", 15, "/loadtest/gzip/rpc", "LoadTest.Login", TOKEN, "gzip", 2048, 200),
+                new Scenario("permission", 10, "/loadtest/br/rpc", "LoadTest.Permission", TOKEN, "br", 2048, 200),
+                new Scenario("denied", 5, "/loadtest/br/rpc", "LoadTest.Permission", DENIED_TOKEN, "gzip", 2048, 401),
+                new Scenario("datamask", 10, "/loadtest/plain/rpc", "LoadTest.Mask", TOKEN, "gzip", 4096, 200),
+                new Scenario("cached", 5, "/loadtest/plain/rpc", "LoadTest.Cached", TOKEN, "gzip", 8192, 200)));
+    }
+}
@@ -0,0 +1,72 @@
+package com.simmed.apigateway.loadtest;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.LoopResources;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 模拟脱敏服务: 接收 DataMaskUtil 发送的 execDatamaskByApiRule 请求, 把 value 中的手机号中间四位替换为 *
+ * 后作为 result 返回; delayMillis 模拟服务耗时
+ */
+@Slf4j
+public final class StubDatamask implements Closeable {
+
+    public static final String PATH = "/api/datamask/masking";
+
+    private static final Pattern MOBILE = Pattern.compile("(1\\d{2})\\d{4}(\\d{4})");
+
+    private final long delayMillis;
+    //独立的事件循环, 不占用网关所在的 reactor-netty 全局线程
+    private final LoopResources loops = LoopResources.create("loadtest-datamask", 2, true);
+    private DisposableServer server;
+
+    public StubDatamask(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    public int start() {
+        server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .tcpConfiguration(tcp -> tcp.runOn(loops))
+                .route(routes -> routes.post(PATH, (request, response) -> request.receive().aggregate().asString()
+                        .map(this::mask)
+                        .delayElement(Duration.ofMillis(delayMillis))
+                        .flatMap(body -> response.header("Content-Type", "application/json;charset=UTF-8")
+                                .sendString(Mono.just(body))
+                                .then())))
+                .bindNow();
+        log.info("stub datamask listening on {}", server.port());
+        return server.port();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.disposeNow();
+        }
+        loops.dispose();
+    }
+
+    private String mask(String body) {
+        JSONObject request = JSON.parseObject(body);
+        JSONArray params = request.getJSONArray("params");
+        String value = params == null || params.isEmpty() ? "" : params.getJSONObject(0).getString("value");
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("id", request.getString("id"));
+        response.put("jsonrpc", "2.0");
+        response.put("result", value == null ? "" : MOBILE.matcher(value).replaceAll("$1****$2"));
+        return JSON.toJSONString(response);
+    }
+}
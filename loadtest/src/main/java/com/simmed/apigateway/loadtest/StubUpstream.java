@@ -0,0 +1,170 @@
+package com.simmed.apigateway.loadtest;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import com.simmed.apigateway.utils.JsonRpcScanner;
+import io.netty.buffer.Unpooled;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.LoopResources;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 模拟上游服务: 对任意路径的 POST 返回 JSON-RPC 响应
+ * <p>
+ * 请求头 X-Stub-Encoding(由路由的 AddRequestHeader 添加)决定响应压缩方式 identity / gzip / br,
+ * X-Stub-Size 决定响应大小, X-Stub-Delay 为处理延迟(毫秒)。未压缩的响应带回请求的 id;
+ * 压缩的响应体预先生成, id 固定为 "1"
+ */
+@Slf4j
+public final class StubUpstream implements Closeable {
+
+    public static final String ENCODING_HEADER = "X-Stub-Encoding";
+    public static final String SIZE_HEADER = "X-Stub-Size";
+    public static final String DELAY_HEADER = "X-Stub-Delay";
+
+    private static final byte[] ID_PREFIX = "{\"jsonrpc\":\"2.0\",\"id\":".getBytes(StandardCharsets.UTF_8);
+
+    private final Map<Integer, byte[]> results = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> compressed = new ConcurrentHashMap<>();
+    private final boolean brotli;
+    //独立的事件循环, 不占用网关所在的 reactor-netty 全局线程
+    private final LoopResources loops = LoopResources.create("loadtest-upstream", Math.max(2, Runtime.getRuntime().availableProcessors() / 2), true);
+    private DisposableServer server;
+
+    public StubUpstream() {
+        boolean available;
+        try {
+            Brotli4jLoader.ensureAvailability();
+            available = true;
+        } catch (Throwable e) {
+            log.warn("Brotli native library unavailable, br routes answer with gzip");
+            available = false;
+        }
+        brotli = available;
+    }
+
+    public int start() {
+        server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .tcpConfiguration(tcp -> tcp.runOn(loops))
+                .handle(this::handle)
+                .bindNow();
+        log.info("stub upstream listening on {}", server.port());
+        return server.port();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.disposeNow();
+        }
+        loops.dispose();
+    }
+
+    private Mono<Void> handle(HttpServerRequest request, HttpServerResponse response) {
+        String encoding = header(request, ENCODING_HEADER, "identity");
+        int size = Integer.parseInt(header(request, SIZE_HEADER, "2048"));
+        long delay = Long.parseLong(header(request, DELAY_HEADER, "0"));
+        return request.receive().aggregate().asByteArray()
+                .defaultIfEmpty(new byte[0])
+                .flatMap(body -> {
+                    Mono<byte[]> reply = Mono.just(body(encoding, size, body));
+                    return delay > 0 ? reply.delayElement(Duration.ofMillis(delay)) : reply;
+                })
+                .flatMap(bytes -> {
+                    response.header("Content-Type", "application/json;charset=UTF-8");
+                    String contentEncoding = contentEncoding(encoding);
+                    if (contentEncoding != null) {
+                        response.header("Content-Encoding", contentEncoding);
+                    }
+                    response.header("Content-Length", String.valueOf(bytes.length));
+                    return response.sendObject(Unpooled.wrappedBuffer(bytes)).then();
+                });
+    }
+
+    private static String header(HttpServerRequest request, String name, String defaultValue) {
+        String value = request.requestHeaders().get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private String contentEncoding(String encoding) {
+        if ("gzip".equals(encoding)) {
+            return "gzip";
+        }
+        if ("br".equals(encoding)) {
+            return brotli ? "br" : "gzip";
+        }
+        return null;
+    }
+
+    private byte[] body(String encoding, int size, byte[] request) {
+        String contentEncoding = contentEncoding(encoding);
+        if (contentEncoding != null) {
+            return compressed.computeIfAbsent(contentEncoding + ':' + size,
+                    key -> compress(contentEncoding, withId("\"1\"".getBytes(StandardCharsets.UTF_8), size)));
+        }
+        JsonRpcScanner scanner = new JsonRpcScanner();
+        scanner.feed(request, 0, request.length);
+        String rawId = scanner.getRawId();
+        return withId((rawId == null ? "null" : rawId).getBytes(StandardCharsets.UTF_8), size);
+    }
+
+    private byte[] withId(byte[] rawId, int size) {
+        byte[] result = results.computeIfAbsent(size, StubUpstream::result);
+        byte[] body = new byte[ID_PREFIX.length + rawId.length + result.length];
+        System.arraycopy(ID_PREFIX, 0, body, 0, ID_PREFIX.length);
+        System.arraycopy(rawId, 0, body, ID_PREFIX.length, rawId.length);
+        System.arraycopy(result, 0, body, ID_PREFIX.length + rawId.length, result.length);
+        return body;
+    }
+
+    /**
+     * id 之后的部分: ,"result":{...}}, 含脱敏规则用到的 name / mobile 字段
+     */
+    private static byte[] result(int size) {
+        Random random = new Random(size);
+        StringBuilder json = new StringBuilder(size + 256).append(",\"result\":{\"items\":[");
+        for (int i = 0; json.length() < size; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(100000 + random.nextInt(900000))
+                    .append(",\"name\":\"患者").append(random.nextInt(10000))
+                    .append("\",\"mobile\":\"1").append(30 + random.nextInt(60)).append(String.format("%08d", random.nextInt(100000000)))
+                    .append("\",\"amount\":").append(random.nextInt(100000) / 100.0)
+                    .append(",\"remark\":\"").append(Long.toString(random.nextLong(), 36)).append("\"}");
+        }
+        return json.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] compress(String encoding, byte[] content) {
+        try {
+            if ("br".equals(encoding)) {
+                return Encoder.compress(content, new Encoder.Parameters().setQuality(4));
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(content);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.simmed.apigateway.loadtest;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import lombok.Getter;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 闭环压测客户端: concurrency 个并发请求循环发送, 每个请求按场景权重随机选择, 收到响应后立即发送下一个
+ * <p>
+ * 客户端使用独立的事件循环, 不与网关及模拟服务共用 reactor-netty 的全局线程
+ */
+public final class TrafficDriver implements Closeable {
+
+    private final List<Scenario> scenarios;
+    private final int totalWeight;
+    private final int concurrency;
+    private final long upstreamDelayMillis;
+    private final long seed;
+    private final LoopResources loops;
+    private final ConnectionProvider connections;
+    private final HttpClient client;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public TrafficDriver(String baseUrl, List<Scenario> scenarios, int concurrency, long upstreamDelayMillis, long seed) {
+        this.scenarios = scenarios;
+        this.totalWeight = scenarios.stream().mapToInt(Scenario::getWeight).sum();
+        this.concurrency = concurrency;
+        this.upstreamDelayMillis = upstreamDelayMillis;
+        this.seed = seed;
+        this.loops = LoopResources.create("loadtest-client", Math.max(2, Runtime.getRuntime().availableProcessors() / 2), true);
+        this.connections = ConnectionProvider.fixed("loadtest", concurrency);
+        this.client = HttpClient.create(connections)
+                .tcpConfiguration(tcp -> tcp.runOn(loops))
+                .baseUrl(baseUrl);
+    }
+
+    /**
+     * 发送 duration 时长的混合流量, 返回按场景统计的结果
+     */
+    public Result run(Duration duration) {
+        Result result = new Result(scenarios);
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Mono<Void>> workers = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            Random random = new Random(seed + i);
+            workers.add(Mono.defer(() -> send(pick(random), result))
+                    .repeat(() -> System.nanoTime() < deadline)
+                    .then());
+        }
+        long start = System.nanoTime();
+        Flux.merge(workers).blockLast();
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    @Override
+    public void close() {
+        connections.disposeLater().block(Duration.ofSeconds(10));
+        loops.disposeLater().block(Duration.ofSeconds(10));
+    }
+
+    private Scenario pick(Random random) {
+        int value = random.nextInt(totalWeight);
+        for (Scenario scenario : scenarios) {
+            value -= scenario.getWeight();
+            if (value < 0) {
+                return scenario;
+            }
+        }
+        return scenarios.get(scenarios.size() - 1);
+    }
+
+    private Mono<Void> send(Scenario scenario, Result result) {
+        Stats stats = result.stats.get(scenario.getName());
+        String body = "{\"jsonrpc\":\"2.0\",\"id\":" + sequence.incrementAndGet() + ",\"method\":\"" + scenario.getMethod()
+                + "\",\"params\":[{\"pageNo\":1,\"pageSize\":20}]}";
+        long start = System.nanoTime();
+        return client.headers(headers -> {
+                    headers.set(HttpHeaderNames.CONTENT_TYPE, "application/json;charset=UTF-8");
+                    headers.set(StubUpstream.SIZE_HEADER, scenario.getResponseSize());
+                    headers.set(StubUpstream.DELAY_HEADER, upstreamDelayMillis);
+                    if (scenario.getToken() != null) {
+                        headers.set("WeAppAuthorization", scenario.getToken());
+                    }
+                    if (scenario.getAcceptEncoding() != null) {
+                        headers.set(HttpHeaderNames.ACCEPT_ENCODING, scenario.getAcceptEncoding());
+                    }
+                })
+                .post()
+                .uri(scenario.getPath())
+                .send(ByteBufFlux.fromString(Mono.just(body)))
+                .responseSingle((response, content) -> content.asByteArray()
+                        .defaultIfEmpty(new byte[0])
+                        .doOnNext(bytes -> stats.record(scenario, response.status().code(), bytes.length, System.nanoTime() - start)))
+                .doOnError(e -> stats.errors.increment())
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    /**
+     * 一轮压测的结果
+     */
+    @Getter
+    public static final class Result {
+        private final Map<String, Stats> stats = new LinkedHashMap<>();
+        private long elapsedNanos;
+
+        Result(List<Scenario> scenarios) {
+            for (Scenario scenario : scenarios) {
+                stats.put(scenario.getName(), new Stats());
+            }
+        }
+
+        /**
+         * 所有场景合并的统计
+         */
+        public Stats total() {
+            Stats total = new Stats();
+            for (Stats item : stats.values()) {
+                total.latency.add(item.latency);
+                total.ok.add(item.ok.sum());
+                total.rejected.add(item.rejected.sum());
+                total.errors.add(item.errors.sum());
+                total.bytes.add(item.bytes.sum());
+            }
+            return total;
+        }
+    }
+
+    /**
+     * 单个场景的统计, 延迟单位为微秒
+     */
+    public static final class Stats {
+        private final Histogram latency = new ConcurrentHistogram(3);
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        void record(Scenario scenario, int status, int length, long nanos) {
+            if (status == scenario.getExpectedStatus()) {
+                ok.increment();
+            } else if (status == 429) {
+                rejected.increment();
+            } else {
+                errors.increment();
+            }
+            bytes.add(length);
+            latency.recordValue(Math.max(1, nanos / 1000));
+        }
+
+        public long requests() {
+            return ok.sum() + rejected.sum() + errors.sum();
+        }
+
+        public long ok() {
+            return ok.sum();
+        }
+
+        public long rejected() {
+            return rejected.sum();
+        }
+
+        public long errors() {
+            return errors.sum();
+        }
+
+        public long bytes() {
+            return bytes.sum();
+        }
+
+        public Histogram latency() {
+            return latency;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.simmed.apigateway.config;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * 脱敏服务调用客户端, 使用独立的有界连接池, 不与网关转发共用
+ */
+@Configuration
+public class DataMaskClientConfiguration {
+
+    @Value("${gateway.datamask.client.maxConnections:50}")
+    private int maxConnections;
+    //连接池耗尽时获取连接的最长等待(毫秒)
+    @Value("${gateway.datamask.client.acquireTimeout:1000}")
+    private long acquireTimeout;
+    @Value("${gateway.datamask.client.connectTimeout:1000}")
+    private int connectTimeout;
+
+    @Bean
+    public WebClient datamaskWebClient() {
+        ConnectionProvider provider = ConnectionProvider.fixed("datamask", maxConnections, acquireTimeout);
+        HttpClient httpClient = HttpClient.create(provider)
+                .tcpConfiguration(client -> client.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout));
+        return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+}
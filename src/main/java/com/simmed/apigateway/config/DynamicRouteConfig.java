@@ -1,6 +1,7 @@
 package com.simmed.apigateway.config;
 
 import com.alibaba.cloud.nacos.NacosConfigProperties;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.ApplicationEventPublisher;
@@ -31,10 +32,12 @@ public class DynamicRouteConfig {
     public class NacosDynRoute {
         @Autowired
         private NacosConfigProperties nacosConfigProperties;
+        @Autowired
+        private MeterRegistry meterRegistry;
 
         @Bean
         public NacosRouteDefinitionRepository nacosRouteDefinitionRepository() {
-            return new NacosRouteDefinitionRepository(publisher, nacosConfigProperties);
+            return new NacosRouteDefinitionRepository(publisher, nacosConfigProperties, meterRegistry);
         }
     }
 
@@ -0,0 +1,68 @@
+package com.simmed.apigateway.config;
+
+import com.simmed.apigateway.utils.RoutePathIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.gateway.event.RefreshRoutesEvent;
+import org.springframework.cloud.gateway.route.CachingRouteLocator;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.cloud.gateway.route.RouteDefinitionLocator;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带路径前缀树的路由缓存, 替换默认的 cachedCompositeRouteLocator
+ * <p>
+ * 路由刷新(RefreshRoutesEvent)时先由 CachingRouteLocator 重新解析并缓存路由, 再用缓存中的同一批 Route 建立 {@link RoutePathIndex},
+ * 路由的断言与过滤器只实例化一次。网关的路由来源(Nacos 内存中的路由、配置文件)都是同步的, 父类处理完事件时缓存已经更新
+ */
+@Slf4j
+public class IndexedCachingRouteLocator extends CachingRouteLocator {
+
+    private final RouteDefinitionLocator routeDefinitionLocator;
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile RoutePathIndex index;
+
+    public IndexedCachingRouteLocator(RouteLocator delegate, RouteDefinitionLocator routeDefinitionLocator) {
+        super(delegate);
+        this.routeDefinitionLocator = routeDefinitionLocator;
+    }
+
+    @Override
+    public void onApplicationEvent(RefreshRoutesEvent event) {
+        super.onApplicationEvent(event);
+        rebuild();
+    }
+
+    /**
+     * 当前路由的前缀树, 尚未建立或建立失败时为 null
+     */
+    public RoutePathIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * 缓存中的路由已按 order 排序; 期间又有刷新时丢弃旧的结果
+     */
+    private void rebuild() {
+        long current = generation.incrementAndGet();
+        long start = System.currentTimeMillis();
+        Mono.zip(getRoutes().collectList(), routeDefinitionLocator.getRouteDefinitions().collectMap(RouteDefinition::getId))
+                .map(tuple -> RoutePathIndex.build(tuple.getT1(), tuple.getT2()))
+                .subscribe(built -> {
+                    if (generation.get() == current) {
+                        index = built;
+                        log.info("route path index rebuilt, routes:{}, unindexed:{}, cost:{}ms",
+                                built.size(), built.unindexedCount(), System.currentTimeMillis() - start);
+                    }
+                }, e -> {
+                    if (generation.get() == current) {
+                        //旧的前缀树可能与当前路由不一致, 改为逐个判断
+                        index = null;
+                    }
+                    log.error("route path index rebuild error, fall back to sequential lookup", e);
+                });
+    }
+}
@@ -0,0 +1,53 @@
+package com.simmed.apigateway.config;
+
+import com.simmed.apigateway.utils.RoutePathIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.handler.RoutePredicateHandlerMapping;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.env.Environment;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * 按路径前缀树选择路由
+ * <p>
+ * 默认的 RoutePredicateHandlerMapping 对每个请求按顺序执行全部路由的断言; 这里先由 {@link RoutePathIndex} 按请求路径取出候选路由,
+ * 只对候选执行完整断言, 匹配结果与默认实现一致。前缀树由 {@link IndexedCachingRouteLocator} 在路由刷新后用缓存中的路由建立, 建好之前按默认方式查找。
+ * 排在默认实现之前, 未匹配的请求仍会交给默认实现
+ */
+@Slf4j
+public class IndexedRoutePredicateHandlerMapping extends RoutePredicateHandlerMapping {
+
+    private final IndexedCachingRouteLocator routeLocator;
+
+    public IndexedRoutePredicateHandlerMapping(FilteringWebHandler webHandler, IndexedCachingRouteLocator routeLocator,
+                                               GlobalCorsProperties globalCorsProperties, Environment environment) {
+        super(webHandler, routeLocator, globalCorsProperties, environment);
+        this.routeLocator = routeLocator;
+        setOrder(0);
+    }
+
+    @Override
+    protected Mono<Route> lookupRoute(ServerWebExchange exchange) {
+        RoutePathIndex current = routeLocator.getIndex();
+        if (current == null) {
+            return super.lookupRoute(exchange);
+        }
+        List<Route> candidates = current.candidates(exchange.getRequest().getPath().pathWithinApplication());
+        return Flux.fromIterable(candidates)
+                .concatMap(route -> Mono.just(route)
+                        .filterWhen(r -> r.getPredicate().apply(exchange))
+                        .doOnError(e -> log.error("Error applying predicate for route: {}", route.getId(), e))
+                        .onErrorResume(e -> Mono.empty()))
+                .next()
+                .map(route -> {
+                    validateRoute(route, exchange);
+                    return route;
+                });
+    }
+}
@@ -1,9 +1,15 @@
 package com.simmed.apigateway.config;
 
 import com.alibaba.cloud.nacos.NacosConfigProperties;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.SerializerFeature;
 import com.alibaba.nacos.api.config.listener.Listener;
 import com.alibaba.nacos.api.exception.NacosException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,13 +17,30 @@ import org.springframework.cloud.gateway.event.RefreshRoutesEvent;
 import org.springframework.cloud.gateway.route.RouteDefinition;
 import org.springframework.cloud.gateway.route.RouteDefinitionRepository;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.util.DigestUtils;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Nacos 路由配置
+ * <p>
+ * 解析后的 RouteDefinition 保存在内存中, {@link #getRouteDefinitions()} 不访问配置中心。
+ * 配置变化时(receiveConfigInfo, 在自己的单线程上执行)逐条与当前配置比较, 只重新解析新增或变化的路由,
+ * 整体替换后才发布 RefreshRoutesEvent; 内容没有变化时不刷新。解析失败时保留当前路由。
+ * 启动时读取失败则按退避间隔重试, 直到读取成功或收到推送。
+ * 没有 id 的路由按内容生成固定的 id, 内容不变时不算变化
+ */
 public class NacosRouteDefinitionRepository implements RouteDefinitionRepository {
 
 
@@ -29,25 +52,79 @@ public class NacosRouteDefinitionRepository implements RouteDefinitionRepository
     // nacos 的配置信息
     private NacosConfigProperties nacosConfigProperties;
 
+    // 启动时读取失败的重试间隔(毫秒), 每次翻倍
+    private static final long RETRY_INITIAL_DELAY = 1000;
+    private static final long RETRY_MAX_DELAY = 60_000;
+
+    // 路由配置变化与启动读取的重试在这个线程上执行, 不占用 Nacos 客户端的线程
+    private final ScheduledExecutorService refreshExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "nacos-route-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Timer refreshTimer;
+
+    // 当前路由, 整体替换
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    // 是否已成功读取过一次配置
+    private volatile boolean loaded;
+
     // 构造器
-    public NacosRouteDefinitionRepository(ApplicationEventPublisher publisher, NacosConfigProperties nacosConfigProperties) {
+    public NacosRouteDefinitionRepository(ApplicationEventPublisher publisher, NacosConfigProperties nacosConfigProperties,
+                                          MeterRegistry meterRegistry) {
         this.publisher = publisher;
         this.nacosConfigProperties = nacosConfigProperties;
-        System.out.println(GatewayConfig.NACOS_DATA_ID + ", " + GatewayConfig.NACOS_GROUP_ID);
+        this.refreshTimer = Timer.builder("gateway.routes.refresh")
+                .description("Time to parse and swap route definitions pushed by Nacos")
+                .register(meterRegistry);
+        Gauge.builder("gateway.routes.count", this, repository -> repository.snapshot.routes.size())
+                .register(meterRegistry);
+        log.info("Nacos route config:{}, {}", GatewayConfig.NACOS_DATA_ID, GatewayConfig.NACOS_GROUP_ID);
+        if (!load()) {
+            scheduleLoad(RETRY_INITIAL_DELAY);
+        }
         addListener();
     }
 
     @Override
     public Flux<RouteDefinition> getRouteDefinitions() {
+        return Flux.fromIterable(snapshot.routes.values());
+    }
+
+    /**
+     * 从配置中心读取并解析路由
+     *
+     * @return 是否已成功读取过配置
+     */
+    private boolean load() {
         try {
             String content = nacosConfigProperties.configServiceInstance()
                     .getConfig(GatewayConfig.NACOS_DATA_ID, GatewayConfig.NACOS_GROUP_ID, 5000);
-            List<RouteDefinition> routeDefinitions = getListByStr(content);
-            return Flux.fromIterable(routeDefinitions);
+            refresh(content);
         } catch (NacosException e) {
             log.error("getRouteDefinitions by nacos error", e);
         }
-        return Flux.fromIterable(new ArrayList<>());
+        return loaded;
+    }
+
+    /**
+     * 启动时读取失败后重试, 间隔翻倍直到 RETRY_MAX_DELAY; 期间收到推送并解析成功则停止
+     */
+    private void scheduleLoad(long delay) {
+        log.warn("route definitions not loaded, retry in {}ms", delay);
+        refreshExecutor.schedule(() -> {
+            if (loaded) {
+                return;
+            }
+            Snapshot before = snapshot;
+            if (!load()) {
+                scheduleLoad(Math.min(delay * 2, RETRY_MAX_DELAY));
+            } else if (snapshot != before) {
+                publisher.publishEvent(new RefreshRoutesEvent(this));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -58,13 +135,15 @@ public class NacosRouteDefinitionRepository implements RouteDefinitionRepository
             nacosConfigProperties.configServiceInstance().addListener(GatewayConfig.NACOS_DATA_ID, GatewayConfig.NACOS_GROUP_ID, new Listener() {
                 @Override
                 public Executor getExecutor() {
-                    return null;
+                    return refreshExecutor;
                 }
 
                 @Override
                 public void receiveConfigInfo(String configInfo) {
                     log.info("自动更新配置...\r\n" + configInfo);
-                    publisher.publishEvent(new RefreshRoutesEvent(this));
+                    if (refresh(configInfo)) {
+                        publisher.publishEvent(new RefreshRoutesEvent(this));
+                    }
                 }
             });
         } catch (NacosException e) {
@@ -72,6 +151,83 @@ public class NacosRouteDefinitionRepository implements RouteDefinitionRepository
         }
     }
 
+    /**
+     * 与当前路由逐条比较后整体替换
+     *
+     * @return 路由是否有变化
+     */
+    synchronized boolean refresh(String content) {
+        long start = System.nanoTime();
+        try {
+            JSONArray array = StringUtils.isNotEmpty(content) ? JSON.parseArray(content) : new JSONArray();
+            Snapshot current = snapshot;
+            Map<String, RouteDefinition> routes = new LinkedHashMap<>();
+            Map<String, JSONObject> sources = new HashMap<>();
+            int added = 0;
+            int changed = 0;
+            for (Object item : array) {
+                if (!(item instanceof JSONObject)) {
+                    continue;
+                }
+                JSONObject source = (JSONObject) item;
+                String id = source.getString("id");
+                String key = id != null ? id : contentId(source);
+                JSONObject previous = current.sources.get(key);
+                RouteDefinition definition;
+                if (previous != null && previous.equals(source)) {
+                    //未变化的路由沿用已解析的对象
+                    definition = current.routes.get(key);
+                } else {
+                    // 从 json 中解析出路由配置信息 —— 所以配置文件的格式一定要写对！
+                    definition = source.toJavaObject(RouteDefinition.class);
+                    //RouteDefinition 默认取随机 UUID, 每次推送都会不同
+                    definition.setId(key);
+                    if (previous == null) {
+                        added++;
+                    } else {
+                        changed++;
+                    }
+                }
+                if (routes.containsKey(key)) {
+                    log.warn("duplicate route id ignored:{}", key);
+                    continue;
+                }
+                routes.put(key, definition);
+                sources.put(key, source);
+            }
+            int removed = 0;
+            for (String id : current.routes.keySet()) {
+                if (!routes.containsKey(id)) {
+                    removed++;
+                }
+            }
+            //顺序变化也影响匹配结果
+            boolean reordered = !new ArrayList<>(routes.keySet()).equals(new ArrayList<>(current.routes.keySet()));
+            loaded = true;
+            if (added == 0 && changed == 0 && removed == 0 && !reordered) {
+                log.info("route definitions unchanged, routes:{}", routes.size());
+                return false;
+            }
+            snapshot = new Snapshot(Collections.unmodifiableMap(routes), sources);
+            log.info("route definitions refreshed, routes:{}, added:{}, changed:{}, removed:{}",
+                    routes.size(), added, changed, removed);
+            return true;
+        } catch (Exception e) {
+            log.error("parse route definitions error, keep current routes:{}", snapshot.routes.size(), e);
+            return false;
+        } finally {
+            refreshTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 没有 id 的路由按键排序后的内容生成 id, 同样内容的路由 id 相同
+     */
+    static String contentId(JSONObject source) {
+        String normalized = JSON.toJSONString(source, SerializerFeature.MapSortField, SerializerFeature.SortField);
+        return "route-" + DigestUtils.md5DigestAsHex(normalized.getBytes(StandardCharsets.UTF_8));
+    }
+
     @Override
     public Mono<Void> save(Mono<RouteDefinition> route) {
         return null;
@@ -82,11 +238,18 @@ public class NacosRouteDefinitionRepository implements RouteDefinitionRepository
         return null;
     }
 
-    // 从 json 中解析出路由配置信息 —— 所以配置文件的格式一定要写对！
-    private List<RouteDefinition> getListByStr(String content) {
-        if (StringUtils.isNotEmpty(content)) {
-            return JSONObject.parseArray(content, RouteDefinition.class);
+    /**
+     * 解析后的路由与对应的原始配置, 原始配置用于下次比较
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), Collections.emptyMap());
+
+        final Map<String, RouteDefinition> routes;
+        final Map<String, JSONObject> sources;
+
+        Snapshot(Map<String, RouteDefinition> routes, Map<String, JSONObject> sources) {
+            this.routes = routes;
+            this.sources = sources;
         }
-        return new ArrayList<>(0);
     }
 }
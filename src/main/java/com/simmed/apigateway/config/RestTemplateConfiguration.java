@@ -1,19 +0,0 @@
-package com.simmed.apigateway.config;
-
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
-import org.springframework.core.Ordered;
-import org.springframework.core.annotation.Order;
-import org.springframework.web.client.RestTemplate;
-
-
-@Configuration
-@Order(Ordered.HIGHEST_PRECEDENCE)
-public class RestTemplateConfiguration {
-
-    @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
-    }
-
-}
\ No newline at end of file
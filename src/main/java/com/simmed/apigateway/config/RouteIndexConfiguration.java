@@ -0,0 +1,41 @@
+package com.simmed.apigateway.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.route.CompositeRouteLocator;
+import org.springframework.cloud.gateway.route.RouteDefinitionLocator;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+/**
+ * 路由前缀树配置
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "gateway.routeIndex", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class RouteIndexConfiguration {
+
+    /**
+     * 与 GatewayAutoConfiguration 中的 cachedCompositeRouteLocator 同名, 替换默认的路由缓存
+     */
+    @Bean
+    @Primary
+    public IndexedCachingRouteLocator cachedCompositeRouteLocator(List<RouteLocator> routeLocators,
+                                                                  RouteDefinitionLocator routeDefinitionLocator) {
+        return new IndexedCachingRouteLocator(new CompositeRouteLocator(Flux.fromIterable(routeLocators)), routeDefinitionLocator);
+    }
+
+    @Bean
+    public IndexedRoutePredicateHandlerMapping indexedRoutePredicateHandlerMapping(FilteringWebHandler webHandler,
+                                                                                   IndexedCachingRouteLocator routeLocator,
+                                                                                   GlobalCorsProperties globalCorsProperties,
+                                                                                   Environment environment) {
+        return new IndexedRoutePredicateHandlerMapping(webHandler, routeLocator, globalCorsProperties, environment);
+    }
+}
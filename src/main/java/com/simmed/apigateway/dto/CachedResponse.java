@@ -0,0 +1,21 @@
+package com.simmed.apigateway.dto;
+
+import lombok.Data;
+
+/**
+ * 网关响应缓存的条目, 本地与 Redis 两级共用(Redis 中为 JSON, body 按 base64 序列化)。
+ * 上游响应头只保留 Content-Type 与 Content-Encoding
+ */
+@Data
+public class CachedResponse {
+    private String contentType;
+    //body 的 Content-Encoding, 未压缩时为 null
+    private String contentEncoding;
+    private byte[] body;
+    //响应 id 的原始 JSON 文本及其在解压后内容中的区间, 没有 id 时 idStart 为 -1
+    private String rawId;
+    private int idStart = -1;
+    private int idEnd = -1;
+    //过期时间(毫秒时间戳)
+    private long expireAt;
+}
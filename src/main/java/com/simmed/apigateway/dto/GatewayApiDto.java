@@ -1,5 +1,6 @@
 package com.simmed.apigateway.dto;
 
+import com.alibaba.fastjson.annotation.JSONField;
 import lombok.Data;
 
 @Data
@@ -15,4 +16,14 @@ public class GatewayApiDto {
     private String moduleName ;
     private Integer moduleIsOpen ;
     private String path ;
+    //响应缓存秒数, 为空或不大于 0 时不缓存; 只应配置在幂等(只读)的方法上
+    private Integer cacheSeconds;
+    //1: 响应缓存与请求合并按用户(token)区分
+    private Integer cacheByUser;
+    //1: 相同的并发请求合并为一次上游调用(配置了 cacheSeconds 时总是合并); 只应配置在幂等的方法上
+    private Integer coalesce;
+
+    //网关内部使用: 权限集合中的编号, 由 GatewayApiCatalog 加载时分配
+    @JSONField(serialize = false, deserialize = false)
+    private int permissionId = -1;
 }
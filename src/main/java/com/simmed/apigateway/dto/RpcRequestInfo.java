@@ -0,0 +1,18 @@
+package com.simmed.apigateway.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 从 JSON-RPC 请求体顶层读取的 id 与 method, params 不解析
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RpcRequestInfo {
+    private String id;
+    private String method;
+    //id 的原始 JSON 文本(字符串含引号), 响应缓存命中时按它改写响应的 id
+    private String rawId;
+}
@@ -0,0 +1,22 @@
+package com.simmed.apigateway.dto;
+
+import com.simmed.apigateway.utils.PermissionSet;
+import lombok.Data;
+
+/**
+ * 一次请求内按 token 读取的 Redis 缓存, 由 AuthAndLoginFilter 加载后放入 exchange 供后续过滤器复用
+ */
+@Data
+public class TokenCacheDto {
+    private String token;
+    //登录会话是否存在
+    private boolean loggedIn;
+    //读取时会话键的剩余有效期(毫秒), 不过期时为 -1
+    private long sessionTtlMillis;
+    //token + "_PermissionApis"
+    private String permissionApis;
+    //permissionApis 解析后的共享权限集合
+    private PermissionSet permissionSet;
+    //token + "_ApiDataMaskRules"
+    private String apiDataMaskRules;
+}
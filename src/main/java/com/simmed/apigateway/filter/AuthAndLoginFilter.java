@@ -3,7 +3,11 @@ package com.simmed.apigateway.filter;
 import brave.Tracer;
 import com.alibaba.fastjson.JSON;
 import com.simmed.apigateway.dto.GatewayApiDto;
-import com.simmed.apigateway.utils.RedisUtil;
+import com.simmed.apigateway.dto.RpcRequestInfo;
+import com.simmed.apigateway.dto.TokenCacheDto;
+import com.simmed.apigateway.utils.GatewayApiCatalog;
+import com.simmed.apigateway.utils.PermissionSetUtil;
+import com.simmed.apigateway.utils.TokenCacheUtil;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -24,29 +28,29 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
 
 @Slf4j
 @Component
 public class AuthAndLoginFilter implements GlobalFilter, GatewayFilter, Ordered {
 
     @Autowired
-    RedisUtil redisUtil;
+    TokenCacheUtil tokenCacheUtil;
+
+    @Autowired
+    GatewayApiCatalog gatewayApiCatalog;
+    @Autowired
+    PermissionSetUtil permissionSetUtil;
 
     @Autowired
     Tracer tracer;
 
-    private static final String CACHE_REQUEST_BODY_OBJECT_KEY = "cachedRequestBodyObject";
+    private static final String CACHE_REQUEST_RPC_INFO_KEY = "cachedRequestRpcInfo";
     private static final String CACHE_REQUEST_API_ID = "cachedRequestApiId";
-    private static final String CACHE_REDIS_APIS = "SIMMED_GatewayApi_CheckList";
-    private static final String CACHE_REDIS_Permissions = "SIMMED_GatewayApi_PermissionList";
-    private static final String PermissionCacheKey = "_PermissionApis";
+    private static final String CACHE_REQUEST_TOKEN_CACHE = "cachedRequestTokenCache";
+    private static final String AUTH_PASSED = "";
 
 
     @Override
-    @SuppressWarnings("unchecked")
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
 
         ServerHttpRequest request = exchange.getRequest();
@@ -62,92 +66,111 @@ public class AuthAndLoginFilter implements GlobalFilter, GatewayFilter, Ordered
         String method = request.getMethodValue();
 
         log.debug("get method from request body:{}", "start");
-        String requestDataStr = exchange.getAttribute(CACHE_REQUEST_BODY_OBJECT_KEY);
-        if (!StringUtils.isBlank(requestDataStr)) {
-            try {
-                RequestData<Object> requestData = JSON.parseObject(requestDataStr, RequestData.class);
-                if (requestData != null && !StringUtils.isBlank(requestData.getMethod())) {
-                    method = requestData.getMethod();
-                }
-            } catch (Exception e) {
-                log.error("RequestData parseObject error", e);
-                log.debug("Get method from request body error:{}", "python project!");
-            }
+        RpcRequestInfo rpcInfo = exchange.getAttribute(CACHE_REQUEST_RPC_INFO_KEY);
+        if (rpcInfo != null && !StringUtils.isBlank(rpcInfo.getMethod())) {
+            method = rpcInfo.getMethod();
+        } else {
+            log.debug("Get method from request body error:{}", "python project!");
         }
 
         if (tracer != null && tracer.currentSpan() != null) {
             tracer.currentSpan().tag("apigateway.request.method", method);
         }
 
-        try {
-            List<GatewayApiDto> apis;
-            Object cacheApis = redisUtil.get(CACHE_REDIS_APIS);
-            if (cacheApis != null) {
-                apis = JSON.parseArray(cacheApis.toString(), GatewayApiDto.class);
-                log.debug("Load CACHE_REDIS_APIS Success!");
-            } else {
-                log.debug("Get CACHE_REDIS_APIS Error:{}", "need init doc apis!");
-                return authError(resp, "1", "请初始化文档!");
-            }
-
-            String finalMethod = method;
-            GatewayApiDto api = null;
-            Optional<GatewayApiDto> optional = apis.stream().filter(x -> x.getPath().equalsIgnoreCase(path) && x.getApiName().equalsIgnoreCase(finalMethod)).findFirst();
-            if (optional.isPresent()) {
-                api = optional.get();
-            }
-            String token = exchange.getRequest().getHeaders().getFirst("WeAppAuthorization");
-
-            if (tracer != null && tracer.currentSpan() != null) {
-                tracer.currentSpan().tag("apigateway.request.weAppAuthorization", token == null ? "Not Logged In" : token);
-            }
-
-            //需要登录拦截的API
-            if (api != null) {
-                log.debug("need check login path:{}", path);
-                log.debug("need check login method:{}", finalMethod);
-                if (StringUtils.isBlank(token)) {
-                    return authError(resp, "1", "请登陆后再访问!");
-                }
-                log.debug("WeAppAuthorization SessionKey:{}", token);
-                if (!redisUtil.hasKey(token)) {
-                    log.debug("SessionKey Timeout:{}", token);
-                    return authError(resp, "1", "请登陆后再访问!");
-                }
-                exchange.getAttributes().put(CACHE_REQUEST_API_ID, api.getApiId());
-            }
-
-            List<GatewayApiDto> permissionsApis = new ArrayList<>();
-            Object perApis = redisUtil.get(CACHE_REDIS_Permissions);
-            if (perApis != null) {
-                permissionsApis = JSON.parseArray(perApis.toString(), GatewayApiDto.class);
-                log.debug("Load CACHE_REDIS_Permissions Success!");
-            }
-            GatewayApiDto perApi = null;
-            Optional<GatewayApiDto> preOptional = permissionsApis.stream().filter(x -> x.getPath().equalsIgnoreCase(path) && x.getApiName().equalsIgnoreCase(finalMethod)).findFirst();
-            if (preOptional.isPresent()) {
-                perApi = preOptional.get();
-            }
-            if (perApi != null) {
-                Object obj = redisUtil.get(token + PermissionCacheKey);
-                if (obj != null) {
-                    List<String> perList = JSON.parseArray(obj.toString(), String.class);
-                    String apiId = perApi.getApiId();
-                    if (!perList.stream().filter(x -> x.equalsIgnoreCase(apiId)).findFirst().isPresent()) {
-                        return authError(resp, "1", "无访问权限!");
+        if (!gatewayApiCatalog.isLoaded()) {
+            log.debug("Get CACHE_REDIS_APIS Error:{}", "need init doc apis!");
+            return authError(resp, "1", "请初始化文档!");
+        }
+
+        String finalMethod = method;
+        GatewayApiDto api = gatewayApiCatalog.findCheckApi(path, finalMethod);
+        GatewayApiDto perApi = gatewayApiCatalog.findPermissionApi(path, finalMethod);
+        String token = exchange.getRequest().getHeaders().getFirst("WeAppAuthorization");
+
+        if (tracer != null && tracer.currentSpan() != null) {
+            tracer.currentSpan().tag("apigateway.request.weAppAuthorization", token == null ? "Not Logged In" : token);
+        }
+
+        Mono<Void> result = authorize(exchange, chain, api, perApi, token, path, finalMethod);
+        if (!StringUtils.isBlank(token) && tokenCacheUtil.isLogoutMethod(finalMethod)) {
+            //退出登录成功后使各网关实例缓存的会话立即失效
+            return result.then(Mono.defer(() -> {
+                HttpStatus status = resp.getStatusCode();
+                return status == null || status.is2xxSuccessful() ? tokenCacheUtil.publishEviction(token) : Mono.empty();
+            }));
+        }
+        return result;
+    }
+
+    private Mono<Void> authorize(ServerWebExchange exchange, GatewayFilterChain chain, GatewayApiDto api, GatewayApiDto perApi,
+                                 String token, String path, String method) {
+        ServerHttpResponse resp = exchange.getResponse();
+        if (api == null && perApi == null) {
+            return chain.filter(exchange);
+        }
+        if (StringUtils.isBlank(token)) {
+            return authError(resp, "1", api != null ? "请登陆后再访问!" : "无访问权限!");
+        }
+
+        //会话、权限、脱敏规则一次读取, 放入 exchange 供后续过滤器复用
+        return tokenCacheUtil.load(token)
+                .map(cache -> {
+                    exchange.getAttributes().put(CACHE_REQUEST_TOKEN_CACHE, cache);
+                    String mess = checkLogin(exchange, api, path, method, cache);
+                    if (mess == null) {
+                        mess = checkPermission(perApi, cache);
                     }
-                } else {
-                    log.debug("User's Permissions un init,Try Change Current AppId:{}", token + PermissionCacheKey);
-                    return authError(resp, "1", "无访问权限!");
-                }
-            }
+                    return mess == null ? AUTH_PASSED : mess;
+                })
+                .onErrorResume(e -> {
+                    log.error("AuthAndLoginFilter error", e);
+                    return Mono.just("系统繁忙，请稍后再试!");
+                })
+                .flatMap(mess -> AUTH_PASSED.equals(mess) ? chain.filter(exchange) : authError(resp, "1", mess));
+    }
 
-        } catch (Exception e) {
-            log.error("AuthAndLoginFilter error", e);
-            return authError(resp, "1", "系统繁忙，请稍后再试!");
+    /**
+     * 登录校验
+     *
+     * @return 校验失败时返回错误信息, 通过时为 null
+     */
+    private String checkLogin(ServerWebExchange exchange, GatewayApiDto api, String path, String method, TokenCacheDto cache) {
+        //需要登录拦截的API
+        if (api == null) {
+            return null;
+        }
+        log.debug("need check login path:{}", path);
+        log.debug("need check login method:{}", method);
+        log.debug("WeAppAuthorization SessionKey:{}", cache.getToken());
+        if (!cache.isLoggedIn()) {
+            log.debug("SessionKey Timeout:{}", cache.getToken());
+            return "请登陆后再访问!";
         }
+        exchange.getAttributes().put(CACHE_REQUEST_API_ID, api.getApiId());
+        return null;
+    }
 
-        return chain.filter(exchange);
+    /**
+     * 权限校验
+     *
+     * @return 校验失败时返回错误信息, 通过时为 null
+     */
+    private String checkPermission(GatewayApiDto perApi, TokenCacheDto cache) {
+        if (perApi == null) {
+            return null;
+        }
+        if (cache.getPermissionSet() == null) {
+            log.debug("User's Permissions un init,Try Change Current AppId:{}", cache.getToken() + TokenCacheUtil.PermissionCacheKey);
+            return "无访问权限!";
+        }
+        if (!cache.getPermissionSet().covers(perApi.getPermissionId())) {
+            //权限集合建立之后目录新增了该API
+            cache.setPermissionSet(permissionSetUtil.of(cache.getPermissionApis()));
+        }
+        if (!cache.getPermissionSet().contains(perApi.getPermissionId())) {
+            return "无访问权限!";
+        }
+        return null;
     }
 
     @Override
@@ -189,14 +212,4 @@ public class AuthAndLoginFilter implements GlobalFilter, GatewayFilter, Ordered
         private Integer code;
         private String message;
     }
-
-    @Data
-    @NoArgsConstructor
-    @AllArgsConstructor
-    static class RequestData<T> {
-        private String id;
-        private String jsonrpc;
-        private String method;
-        private List<T> params;
-    }
 }
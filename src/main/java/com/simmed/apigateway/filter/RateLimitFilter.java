@@ -0,0 +1,117 @@
+package com.simmed.apigateway.filter;
+
+import brave.Tracer;
+import com.alibaba.fastjson.JSON;
+import com.simmed.apigateway.dto.GatewayApiDto;
+import com.simmed.apigateway.dto.RpcRequestInfo;
+import com.simmed.apigateway.dto.TokenCacheDto;
+import com.simmed.apigateway.utils.GatewayApiCatalog;
+import com.simmed.apigateway.utils.RateLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按 token、appId(请求头)、apiId 限流, 在 AuthAndLoginFilter 之后执行, 超限时返回 429。
+ * token 维度只计入 AuthAndLoginFilter 校验过的已登录 token, 请求头中任意的 token 不创建桶;
+ * 开启 appId 限流时, 未携带或携带未登记 appId 的请求返回 400
+ */
+@Slf4j
+@Component
+public class RateLimitFilter implements GlobalFilter, GatewayFilter, Ordered {
+
+    private static final String CACHE_REQUEST_RPC_INFO_KEY = "cachedRequestRpcInfo";
+    private static final String CACHE_REQUEST_API_ID = "cachedRequestApiId";
+    private static final String CACHE_REQUEST_TOKEN_CACHE = "cachedRequestTokenCache";
+
+    //请求中携带 appId 的请求头
+    @Value("${gateway.rateLimit.appIdHeader:AppId}")
+    String appIdHeader;
+
+    @Autowired
+    RateLimiter rateLimiter;
+    @Autowired
+    GatewayApiCatalog gatewayApiCatalog;
+    @Autowired
+    Tracer tracer;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        if (!rateLimiter.isEnabled()) {
+            return chain.filter(exchange);
+        }
+        ServerHttpRequest request = exchange.getRequest();
+        String appId = request.getHeaders().getFirst(appIdHeader);
+        if (!rateLimiter.isAcceptedApp(appId)) {
+            log.debug("rate limit unknown appId:{}, path:{}", appId, request.getPath());
+            return reject(exchange.getResponse(), HttpStatus.BAD_REQUEST, "缺少或未登记的 " + appIdHeader + "!");
+        }
+        TokenCacheDto tokenCache = exchange.getAttribute(CACHE_REQUEST_TOKEN_CACHE);
+        String token = tokenCache != null && tokenCache.isLoggedIn() ? tokenCache.getToken() : null;
+        String rejected = rateLimiter.tryAcquire(token, appId, apiId(exchange));
+        if (rejected == null) {
+            return chain.filter(exchange);
+        }
+        log.debug("rate limited, dimension:{}, path:{}", rejected, request.getPath());
+        if (tracer != null && tracer.currentSpan() != null) {
+            tracer.currentSpan().tag("apigateway.request.rateLimited", rejected);
+        }
+        return reject(exchange.getResponse(), HttpStatus.TOO_MANY_REQUESTS, "请求过于频繁，请稍后再试!");
+    }
+
+    /**
+     * AuthAndLoginFilter 只为需要登录的API记录 apiId, 其余API按目录查找
+     */
+    private String apiId(ServerWebExchange exchange) {
+        String apiId = exchange.getAttribute(CACHE_REQUEST_API_ID);
+        if (apiId != null) {
+            return apiId;
+        }
+        RpcRequestInfo rpcInfo = exchange.getAttribute(CACHE_REQUEST_RPC_INFO_KEY);
+        String method = rpcInfo != null && StringUtils.isNotBlank(rpcInfo.getMethod()) ? rpcInfo.getMethod()
+                : exchange.getRequest().getMethodValue();
+        String path = exchange.getRequest().getPath().toString();
+        GatewayApiDto api = gatewayApiCatalog.findCheckApi(path, method);
+        if (api == null) {
+            api = gatewayApiCatalog.findPermissionApi(path, method);
+        }
+        return api == null ? null : api.getApiId();
+    }
+
+    private Mono<Void> reject(ServerHttpResponse resp, HttpStatus status, String message) {
+        resp.setStatusCode(status);
+        resp.getHeaders().add("Content-Type", "application/json;charset=UTF-8");
+        if (status == HttpStatus.TOO_MANY_REQUESTS) {
+            resp.getHeaders().add("Retry-After", "1");
+        }
+        Map<String, Object> returnData = new LinkedHashMap<>();
+        returnData.put("id", "1");
+        returnData.put("code", status.value());
+        returnData.put("message", message);
+        DataBuffer buffer = resp.bufferFactory().wrap(JSON.toJSONString(returnData).getBytes(StandardCharsets.UTF_8));
+        return resp.writeWith(Flux.just(buffer));
+    }
+
+    @Override
+    public int getOrder() {
+        //在 AuthAndLoginFilter(-9) 之后, 未通过鉴权的请求不占用配额
+        return -8;
+    }
+}
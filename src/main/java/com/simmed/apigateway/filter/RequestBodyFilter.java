@@ -2,45 +2,52 @@ package com.simmed.apigateway.filter;
 
 import brave.Tracer;
 import com.alibaba.fastjson.JSON;
+import com.simmed.apigateway.utils.CachedRequestBody;
+import com.simmed.apigateway.utils.JsonRpcScanner;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.gateway.filter.GatewayFilter;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.GlobalFilter;
-import org.springframework.cloud.gateway.filter.factory.rewrite.CachedBodyOutputMessage;
-import org.springframework.cloud.gateway.support.BodyInserterContext;
 import org.springframework.core.Ordered;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.core.io.buffer.PooledDataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.http.codec.ServerCodecConfigurer;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
 import org.springframework.stereotype.Component;
-import org.springframework.web.reactive.function.BodyInserter;
-import org.springframework.web.reactive.function.BodyInserters;
-import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.*;
 
 @Slf4j
 @Component
 public class RequestBodyFilter implements GlobalFilter, GatewayFilter, Ordered {
 
-    @Autowired
-    ServerCodecConfigurer codeConfig;
+    @Value("${gateway.requestBody.inMemoryThreshold:262144}")
+    int inMemoryThreshold;
+
+    @Value("${gateway.requestBody.maxSize:10485760}")
+    long maxSize;
+
+    @Value("${gateway.requestBody.spillDirectory:${java.io.tmpdir}}")
+    String spillDirectory;
 
     @Autowired
     Tracer tracer;
 
     private static final String CACHE_REQUEST_BODY_OBJECT_KEY = "cachedRequestBodyObject";
     private static final String CACHE_REQUEST_URL_OBJECT_KEY = "cachedRequestUrlObject";
+    private static final String CACHE_REQUEST_RPC_INFO_KEY = "cachedRequestRpcInfo";
     private static final Set<String> SUPPORTED_MEDIA_TYPES = new HashSet<>(Arrays.asList(
             MediaType.MULTIPART_FORM_DATA.toString(),
             MediaType.APPLICATION_OCTET_STREAM.toString(),
@@ -48,12 +55,8 @@ public class RequestBodyFilter implements GlobalFilter, GatewayFilter, Ordered {
     ));
 
     @Override
-    @SuppressWarnings("unchecked")
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
 
-        Class inClass = String.class;
-        ServerRequest serverRequest = ServerRequest.create(exchange, codeConfig.getReaders());
-
         ServerHttpRequest request = exchange.getRequest();
 
         //只记录 http 请求(包含 https)
@@ -87,42 +90,50 @@ public class RequestBodyFilter implements GlobalFilter, GatewayFilter, Ordered {
             return chain.filter(exchange);
         }
 
-        Mono<?> modifiedBody = serverRequest.bodyToMono(inClass).flatMap(o -> {
-            exchange.getAttributes().put(CACHE_REQUEST_BODY_OBJECT_KEY, o);
-            return Mono.justOrEmpty(o);
-        });
-
-        BodyInserter bodyInserter = BodyInserters.fromPublisher(modifiedBody, inClass);
-        HttpHeaders headers = new HttpHeaders();
-        headers.putAll(exchange.getRequest().getHeaders());
-        CachedBodyOutputMessage outputMessage = new CachedBodyOutputMessage(exchange, headers);
-
-        return bodyInserter.insert(outputMessage, new BodyInserterContext())
+        //保留原始 DataBuffer(超过阈值时落盘), 读取的同时扫描顶层 method / id, 供 AuthAndLoginFilter 路由鉴权
+        JsonRpcScanner scanner = new JsonRpcScanner();
+        CachedRequestBody cachedBody = new CachedRequestBody(getCharset(request.getHeaders()),
+                inMemoryThreshold, maxSize, Paths.get(spillDirectory));
+
+        return request.getBody()
+                .concatMap(dataBuffer -> {
+                    if (!scanner.isDone()) {
+                        scanner.feed(dataBuffer);
+                    }
+                    return cachedBody.append(dataBuffer);
+                })
+                //出错或取消时释放尚未交给 cachedBody 的 DataBuffer
+                .doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release)
                 .then(Mono.defer(() -> {
-                    ServerHttpRequestDecorator decorator = new ServerHttpRequestDecorator(exchange.getRequest()) {
-                        @Override
-                        public HttpHeaders getHeaders() {
-                            long contentLength = headers.getContentLength();
-                            HttpHeaders httpHeaders = new HttpHeaders();
-                            httpHeaders.putAll(super.getHeaders());
-                            if (contentLength > 0) {
-                                httpHeaders.setContentLength(contentLength);
-                            } else {
-                                //this causes a 'HTTP/1.1 411 Length Required'
-                                httpHeaders.set(HttpHeaders.TRANSFER_ENCODING, "chunked");
-                            }
-                            return httpHeaders;
-                        }
-
-                        //释放 DataBuffer 对象，以避免潜在的内存泄漏问题
+                    if (!cachedBody.isEmpty()) {
+                        exchange.getAttributes().put(CACHE_REQUEST_BODY_OBJECT_KEY, cachedBody);
+                        exchange.getAttributes().put(CACHE_REQUEST_RPC_INFO_KEY, scanner.result());
+                    }
+                    if (tracer != null && tracer.currentSpan() != null) {
+                        tracer.currentSpan().tag("apigateway.request.bodySpilled", String.valueOf(cachedBody.isSpilled()));
+                    }
+                    //请求体原样转发, Content-Length 等请求头无需改写
+                    ServerHttpRequestDecorator decorator = new ServerHttpRequestDecorator(request) {
                         @Override
                         public Flux<DataBuffer> getBody() {
-                            return outputMessage.getBody()
-                                    .doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release);
+                            return cachedBody.replay(exchange.getResponse().bufferFactory());
                         }
                     };
                     return chain.filter(exchange.mutate().request(decorator).build());
-                }));
+                }))
+                .doFinally(signalType -> cachedBody.release());
+    }
+
+    private Charset getCharset(HttpHeaders headers) {
+        try {
+            MediaType mediaType = headers.getContentType();
+            if (mediaType != null && mediaType.getCharset() != null) {
+                return mediaType.getCharset();
+            }
+        } catch (Exception e) {
+            log.debug("parse content-type charset error:{}", e.getMessage());
+        }
+        return StandardCharsets.UTF_8;
     }
 
     @Override
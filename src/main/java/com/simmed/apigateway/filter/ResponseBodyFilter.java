@@ -1,16 +1,18 @@
 package com.simmed.apigateway.filter;
 
 import brave.Tracer;
-import com.aayushatharva.brotli4j.Brotli4jLoader;
-import com.aayushatharva.brotli4j.decoder.Decoder;
-import com.aayushatharva.brotli4j.decoder.DecoderJNI;
-import com.aayushatharva.brotli4j.decoder.DirectDecompress;
-import com.aayushatharva.brotli4j.encoder.Encoder;
-import com.alibaba.fastjson.JSON;
-import com.simmed.apigateway.dto.ApiRuleDto;
 import com.simmed.apigateway.dto.ExecDatamaskByApiRuleRequest;
+import com.simmed.apigateway.dto.TokenCacheDto;
+import com.simmed.apigateway.utils.BrotliCodec;
+import com.simmed.apigateway.utils.ContentEncodingNegotiator;
+import com.simmed.apigateway.utils.CpuWorkScheduler;
+import com.simmed.apigateway.utils.DataMaskAlgorithm;
+import com.simmed.apigateway.utils.DataMaskPlan;
 import com.simmed.apigateway.utils.DataMaskUtil;
-import com.simmed.apigateway.utils.RedisUtil;
+import com.simmed.apigateway.utils.GzipCodec;
+import com.simmed.apigateway.utils.JsonMaskTransformer;
+import com.simmed.apigateway.utils.ReactiveRedisUtil;
+import com.simmed.apigateway.utils.TokenCacheUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
 import org.reactivestreams.Publisher;
@@ -23,26 +25,24 @@ import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferFactory;
 import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.PooledDataBuffer;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
 import org.springframework.stereotype.Component;
-import org.springframework.util.CollectionUtils;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.Map;
 
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
 import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR;
 
 
@@ -53,150 +53,290 @@ public class ResponseBodyFilter implements GlobalFilter, GatewayFilter, Ordered
     private static final String CACHE_REQUEST_URL_OBJECT_KEY = "cachedRequestUrlObject";
     private static final String CACHE_REQUEST_BODY_OBJECT_KEY = "cachedRequestBodyObject";
     private static final String CACHE_REQUEST_API_ID = "cachedRequestApiId";
-    private static final String ApiDataMaskCacheKey = "_ApiDataMaskRules";
+    private static final String CACHE_REQUEST_TOKEN_CACHE = "cachedRequestTokenCache";
+    private static final String ApiDataMaskCacheKey = TokenCacheUtil.ApiDataMaskCacheKey;
 
     @Autowired
     Tracer tracer;
     @Autowired
     DataMaskUtil dataMaskUtil;
     @Autowired
-    RedisUtil redisUtil;
+    ReactiveRedisUtil reactiveRedisUtil;
+    @Autowired
+    GzipCodec gzipCodec;
+    @Autowired
+    BrotliCodec brotliCodec;
+    @Autowired
+    ContentEncodingNegotiator contentEncodingNegotiator;
+    @Autowired
+    CpuWorkScheduler cpuWorkScheduler;
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
 
+        //未匹配到API时不可能有脱敏规则, 不需要网关压缩时不包装响应
+        boolean matchedApi = exchange.getAttribute(CACHE_REQUEST_API_ID) != null;
+        if (!matchedApi && !contentEncodingNegotiator.isEnabled()) {
+            return chain.filter(exchange);
+        }
         ServerHttpRequest request = exchange.getRequest();
         String path = request.getPath().toString();
+        String acceptEncoding = request.getHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING);
         ServerHttpResponse originalResponse = exchange.getResponse();
         DataBufferFactory bufferFactory = originalResponse.bufferFactory();
-        String acceptEncoding = request.getHeaders().getFirst("Accept-Encoding");
 
         ServerHttpResponseDecorator decoratedResponse = new ServerHttpResponseDecorator(originalResponse) {
             @Override
             public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
 
-                if (getStatusCode().equals(HttpStatus.OK) && body instanceof Flux) {
+                if (HttpStatus.OK.equals(getStatusCode()) && body instanceof Flux) {
                     // 获取ContentType，判断是否返回JSON格式数据
                     String originalResponseContentType = exchange.getAttribute(ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR);
                     String originalResponseContentEncoding = originalResponse.getHeaders().getFirst("content-encoding");
-                    HttpHeaders headers = originalResponse.getHeaders();
-                    if (StringUtils.isNotBlank(originalResponseContentType) && originalResponseContentType.contains("application/json")) {
-                        Flux<? extends DataBuffer> fluxBody = (Flux<? extends DataBuffer>) body;
-                        return super.writeWith(fluxBody.buffer().map(dataBuffer -> {
-
-                            DataBufferFactory dataBufferFactory = new DefaultDataBufferFactory();
-                            DataBuffer join = dataBufferFactory.join(dataBuffer);
-                            byte[] content = new byte[join.readableByteCount()];
-                            join.read(content);
-
-                            if (tracer != null && tracer.currentSpan() != null) {
-                                tracer.currentSpan().tag("apigateway.response.encoding", originalResponseContentEncoding == null ? "None" : originalResponseContentEncoding);
-                            }
-                            //释放掉内存
-                            DataBufferUtils.release(join);
-                            String s = null;
-                            //返回 Content-Encoding: br 压缩格式
-                            if (!StringUtils.isBlank(originalResponseContentEncoding) && originalResponseContentEncoding.equals("br")) {
-                                log.debug("Brotli Response Content-Encoding:{}", originalResponseContentEncoding);
-                                log.debug("Brotli Before UnCompress Data Length:{}", content.length);
-                                try {
-                                    Brotli4jLoader.ensureAvailability();
-                                    DirectDecompress directDecompress = Decoder.decompress(content); // or DirectDecompress.decompress(compressed);
-                                    if (directDecompress.getResultStatus() == DecoderJNI.Status.DONE) {
-                                        s = new String(directDecompress.getDecompressedData());
-                                    } else {
-                                        log.error("Some Error Occurred While Decompressing");
-                                    }
-                                } catch (IOException e) {
-                                    log.error("Brotli UnCompress Error!");
-                                    e.printStackTrace();
-                                }
-                            } else {
-                                //返回 gzip 压缩格式
-                                if (!StringUtils.isBlank(acceptEncoding) && acceptEncoding.contains("gzip")) {
-                                    s = new String(uncompress(content), StandardCharsets.UTF_8);
-                                } else {
-                                    //不压缩
-                                    s = new String(content, StandardCharsets.UTF_8);
+                    Flux<? extends DataBuffer> fluxBody = (Flux<? extends DataBuffer>) body;
+                    if (matchedApi && StringUtils.isNotBlank(originalResponseContentType) && originalResponseContentType.contains("application/json")) {
+                        //先确定脱敏规则, 再决定如何处理响应体
+                        return getMaskPlan(exchange).flatMap(plan -> {
+                            if (plan.isEmpty()) {
+                                //无脱敏规则: 原始 DataBuffer 与 Content-Encoding 原样转发, 不解压不解码
+                                if (tracer != null && tracer.currentSpan() != null) {
+                                    tracer.currentSpan().tag("apigateway.response.datamask", "none");
                                 }
+                                return super.writeWith(passThrough(fluxBody, originalResponseContentEncoding));
                             }
-
-                            String requestJson = exchange.getAttribute(CACHE_REQUEST_BODY_OBJECT_KEY);
-                            String urlparams = exchange.getAttribute(CACHE_REQUEST_URL_OBJECT_KEY);
-
-                            //记录请求日志
-                            log.debug("<<<------ResponseBodyFilter----->>>");
-                            log.debug("path:{}", path);
-                            log.debug("params:{}", urlparams);
-                            log.debug("request:{}", requestJson);
-                            log.debug("response:{}", s);
-
-                            //调用脱敏服务
-                            if (!StringUtils.isBlank(s)) {
-                                log.debug("Exec Datamask By ApiRule Start:{}", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date()));
-                                String token = exchange.getRequest().getHeaders().getFirst("WeAppAuthorization");
-                                Object obj = redisUtil.get(token + ApiDataMaskCacheKey);
-                                if (obj != null) {
-                                    List<ApiRuleDto> apiRuleDtos = JSON.parseArray(obj.toString(), ApiRuleDto.class);
-                                    String apiId = exchange.getAttribute(CACHE_REQUEST_API_ID);
-                                    List<ApiRuleDto> rules = apiRuleDtos.stream().filter(p -> p.getApiId().equals(apiId)).collect(Collectors.toList());
-                                    if (!CollectionUtils.isEmpty(rules)) {
-                                        ExecDatamaskByApiRuleRequest datamaskByApiRuleRequest = new ExecDatamaskByApiRuleRequest();
-                                        datamaskByApiRuleRequest.setValue(s);
-                                        datamaskByApiRuleRequest.setApiRules(rules);
-                                        s = dataMaskUtil.execDatamaskByApiRule(datamaskByApiRuleRequest);
-                                    }
-                                }
-                                log.debug("Exec Datamask By ApiRule End:{}", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date()));
-                            }
-
-                            log.debug("s: {}", s);
-
-                            byte[] uppedContent = null;
-                            if (StringUtils.isBlank(s)) {
-                                log.debug("Content Length:{}, Response isBlank,UnCompress Error!", content.length);
-                            } else {
-                                if (!StringUtils.isBlank(originalResponseContentEncoding) && originalResponseContentEncoding.equals("br")) {
-                                    try {
-                                        Brotli4jLoader.ensureAvailability();
-                                        uppedContent = Encoder.compress(s.getBytes());
-                                        log.debug("Brotli Compress OK! Data Length:{}", uppedContent.length);
-                                    } catch (Exception e) {
-                                        log.error("Brotli Compress Error!");
-                                        e.printStackTrace();
-                                    }
-                                } else {
-                                    if (!StringUtils.isBlank(acceptEncoding) && acceptEncoding.contains("gzip")) {
-                                        uppedContent = compress(s, StandardCharsets.UTF_8.toString());
-                                    } else {
-                                        uppedContent = s.getBytes(StandardCharsets.UTF_8);
-                                    }
-                                }
-                            }
-                            if (uppedContent.length > 0L) {
-                                headers.setContentLength(uppedContent.length);
-                            } else {
-                                headers.set("Transfer-Encoding", "chunked");
-                            }
-                            if (tracer != null && tracer.currentSpan() != null) {
-                                tracer.currentSpan().tag("apigateway.response.contentLength", String.valueOf(uppedContent.length));
+                            if (plan.isLocalOnly() && isStreamable(originalResponseContentEncoding)) {
+                                //规则全部可在本地执行: 边接收边解压、脱敏、压缩
+                                return super.writeWith(maskStreaming(fluxBody, plan.getLocalFields(), originalResponseContentEncoding));
                             }
-                            return bufferFactory.wrap(uppedContent);
-                        }));
+                            return super.writeWith(rewriteBody(fluxBody, plan, originalResponseContentEncoding));
+                        });
                     }
+                    return super.writeWith(passThrough(fluxBody, originalResponseContentEncoding));
                 }
                 // if body is not a flux. never got there.
                 return super.writeWith(body);
             }
+
+            private String contentType() {
+                String contentType = exchange.getAttribute(ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR);
+                if (contentType == null && originalResponse.getHeaders().getContentType() != null) {
+                    contentType = originalResponse.getHeaders().getContentType().toString();
+                }
+                return contentType;
+            }
+
+            /**
+             * 不改写内容: 上游已压缩时原样转发, 未压缩且协商结果需要压缩时由网关压缩
+             */
+            private Flux<? extends DataBuffer> passThrough(Flux<? extends DataBuffer> fluxBody, String originalResponseContentEncoding) {
+                if (StringUtils.isNotBlank(originalResponseContentEncoding) && !"identity".equalsIgnoreCase(originalResponseContentEncoding)) {
+                    return fluxBody;
+                }
+                HttpHeaders headers = originalResponse.getHeaders();
+                if (contentEncodingNegotiator.isNegotiable(contentType(), headers.getContentLength())) {
+                    //是否压缩随 Accept-Encoding 变化, 不压缩的响应也要声明, 避免共享缓存把它返回给所有客户端
+                    ContentEncodingNegotiator.addVary(headers);
+                }
+                if (HttpMethod.HEAD.equals(request.getMethod())) {
+                    return fluxBody;
+                }
+                String encoding = contentEncodingNegotiator.negotiate(acceptEncoding, contentType(), headers.getContentLength());
+                if (encoding == null) {
+                    return fluxBody;
+                }
+                Flux<? extends DataBuffer> offloaded = cpuWorkScheduler.offload(fluxBody, headers.getContentLength());
+                headers.remove(HttpHeaders.CONTENT_LENGTH);
+                ContentEncodingNegotiator.applyContentEncoding(headers, encoding);
+                return contentEncodingNegotiator.encode(offloaded, encoding, bufferFactory, exchange.getAttribute(GATEWAY_ROUTE_ATTR));
+            }
+
+            /**
+             * 流式脱敏, 不缓冲整个响应体
+             */
+            private Flux<DataBuffer> maskStreaming(Flux<? extends DataBuffer> fluxBody, Map<String, DataMaskAlgorithm> fields, String encoding) {
+                log.debug("Exec Datamask By ApiRule Streaming, path:{}, fields:{}", path, fields.keySet());
+                HttpHeaders headers = originalResponse.getHeaders();
+                //脱敏不改变长度量级, 以上游长度估算是否值得压缩
+                long upstreamLength = headers.getContentLength();
+                String outEncoding = contentEncodingNegotiator.negotiate(acceptEncoding, contentType(), upstreamLength);
+                headers.remove(HttpHeaders.CONTENT_LENGTH);
+                headers.set(HttpHeaders.TRANSFER_ENCODING, "chunked");
+                ContentEncodingNegotiator.applyContentEncoding(headers, outEncoding);
+                //脱敏后的内容随用户的规则变化, 上游 ETag 不再适用
+                headers.remove(HttpHeaders.ETAG);
+                if (tracer != null && tracer.currentSpan() != null) {
+                    tracer.currentSpan().tag("apigateway.response.datamask", "streaming");
+                }
+                JsonMaskTransformer transformer = new JsonMaskTransformer(fields);
+                boolean gzip = "gzip".equalsIgnoreCase(encoding);
+                boolean br = "br".equalsIgnoreCase(encoding);
+                //大响应或长度未知时, 解压、脱敏、压缩在 CPU 工作线程上执行
+                Flux<? extends DataBuffer> offloaded = cpuWorkScheduler.offload(fluxBody, upstreamLength);
+                Flux<? extends DataBuffer> decoded = gzip ? gzipCodec.decode(offloaded, bufferFactory)
+                        : br ? brotliCodec.decode(offloaded, bufferFactory) : offloaded;
+                Flux<DataBuffer> masked = decoded.map(dataBuffer -> transformer.transform(dataBuffer, bufferFactory))
+                        .concatWith(Mono.defer(() -> Mono.justOrEmpty(transformer.finish(bufferFactory))))
+                        .doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release);
+                if (outEncoding == null) {
+                    return masked;
+                }
+                return contentEncodingNegotiator.encode(masked, outEncoding, bufferFactory, exchange.getAttribute(GATEWAY_ROUTE_ATTR));
+            }
+
+            /**
+             * 缓冲整个响应体后解压、脱敏、重新压缩
+             */
+            private Flux<DataBuffer> rewriteBody(Flux<? extends DataBuffer> fluxBody, DataMaskPlan plan, String originalResponseContentEncoding) {
+                HttpHeaders headers = originalResponse.getHeaders();
+                boolean br = "br".equalsIgnoreCase(originalResponseContentEncoding);
+                return fluxBody.buffer().concatMap(dataBuffer -> {
+
+                    DataBufferFactory dataBufferFactory = new DefaultDataBufferFactory();
+                    DataBuffer join = dataBufferFactory.join(dataBuffer);
+                    byte[] content = new byte[join.readableByteCount()];
+                    join.read(content);
+
+                    if (tracer != null && tracer.currentSpan() != null) {
+                        tracer.currentSpan().tag("apigateway.response.encoding", originalResponseContentEncoding == null ? "None" : originalResponseContentEncoding);
+                    }
+                    //释放掉内存
+                    DataBufferUtils.release(join);
+                    Mono<String> decoded;
+                    //返回 Content-Encoding: br 压缩格式
+                    if (br) {
+                        log.debug("Brotli Response Content-Encoding:{}", originalResponseContentEncoding);
+                        log.debug("Brotli Before UnCompress Data Length:{}", content.length);
+                        decoded = brotliCodec.decompress(content)
+                                .map(bytes -> new String(bytes, StandardCharsets.UTF_8))
+                                .onErrorResume(e -> {
+                                    log.error("Brotli UnCompress Error!", e);
+                                    return Mono.empty();
+                                });
+                    } else if ("gzip".equalsIgnoreCase(originalResponseContentEncoding)) {
+                        //返回 gzip 压缩格式
+                        decoded = cpuWorkScheduler.run(content.length, () -> new String(gzipCodec.decode(content), StandardCharsets.UTF_8))
+                                .onErrorResume(e -> {
+                                    log.error("gzip uncompress error.", e);
+                                    return Mono.empty();
+                                });
+                    } else {
+                        //不压缩
+                        decoded = Mono.just(new String(content, StandardCharsets.UTF_8));
+                    }
+
+                    return decoded.defaultIfEmpty("").flatMap(s -> {
+                        //请求体在 debug 日志输出时才解码
+                        Object requestJson = exchange.getAttribute(CACHE_REQUEST_BODY_OBJECT_KEY);
+                        String urlparams = exchange.getAttribute(CACHE_REQUEST_URL_OBJECT_KEY);
+
+                        //记录请求日志
+                        log.debug("<<<------ResponseBodyFilter----->>>");
+                        log.debug("path:{}", path);
+                        log.debug("params:{}", urlparams);
+                        log.debug("request:{}", requestJson);
+                        log.debug("response:{}", s);
+
+                        if (StringUtils.isBlank(s)) {
+                            log.debug("Content Length:{}, Response isBlank,UnCompress Error!", content.length);
+                            return Mono.just(bufferFactory.wrap(content));
+                        }
+
+                        //调用脱敏服务
+                        return execDatamask(plan, s).flatMap(masked -> {
+                            log.debug("s: {}", masked);
+
+                            byte[] bytes = masked.getBytes(StandardCharsets.UTF_8);
+                            String outEncoding = contentEncodingNegotiator.negotiate(acceptEncoding, contentType(), bytes.length);
+                            Mono<byte[]> encoded = outEncoding == null ? Mono.just(bytes)
+                                    : contentEncodingNegotiator.encode(bytes, outEncoding, exchange.getAttribute(GATEWAY_ROUTE_ATTR));
+                            return encoded.onErrorResume(e -> {
+                                log.error("Compress Error! encoding:{}", outEncoding, e);
+                                return Mono.empty();
+                            }).map(uppedContent -> {
+                                ContentEncodingNegotiator.applyContentEncoding(headers, outEncoding);
+                                return uppedContent;
+                            }).switchIfEmpty(Mono.fromSupplier(() -> {
+                                //压缩失败时不压缩输出
+                                ContentEncodingNegotiator.applyContentEncoding(headers, null);
+                                return bytes;
+                            })).map(uppedContent -> {
+                                //脱敏后的内容随用户的规则变化, 上游 ETag 不再适用
+                                headers.remove(HttpHeaders.ETAG);
+                                if (uppedContent.length > 0L) {
+                                    headers.setContentLength(uppedContent.length);
+                                } else {
+                                    headers.set("Transfer-Encoding", "chunked");
+                                }
+                                if (tracer != null && tracer.currentSpan() != null) {
+                                    tracer.currentSpan().tag("apigateway.response.contentLength", String.valueOf(uppedContent.length));
+                                }
+                                return bufferFactory.wrap(uppedContent);
+                            });
+                        });
+                    });
+                });
+            }
         };
         // replace response with decorator
         return chain.filter(exchange.mutate().response(decoratedResponse).build());
     }
 
+    /**
+     * 响应编码是否支持流式处理, native 库不可用时 br 只能原样返回
+     */
+    private boolean isStreamable(String contentEncoding) {
+        return StringUtils.isBlank(contentEncoding) || "gzip".equalsIgnoreCase(contentEncoding)
+                || ("br".equalsIgnoreCase(contentEncoding) && brotliCodec.isAvailable());
+    }
+
+    /**
+     * 当前用户在该API上的脱敏计划, 无规则时为 DataMaskPlan.EMPTY
+     */
+    private Mono<DataMaskPlan> getMaskPlan(ServerWebExchange exchange) {
+        String apiId = exchange.getAttribute(CACHE_REQUEST_API_ID);
+        if (apiId == null) {
+            return Mono.just(DataMaskPlan.EMPTY);
+        }
+        //优先复用 AuthAndLoginFilter 已读取的脱敏规则
+        TokenCacheDto tokenCache = exchange.getAttribute(CACHE_REQUEST_TOKEN_CACHE);
+        Mono<String> apiRules;
+        if (tokenCache != null) {
+            apiRules = Mono.justOrEmpty(tokenCache.getApiDataMaskRules());
+        } else {
+            String token = exchange.getRequest().getHeaders().getFirst("WeAppAuthorization");
+            apiRules = reactiveRedisUtil.get(token + ApiDataMaskCacheKey);
+        }
+        //规则 JSON 很大且未缓存时解析较重, 按大小交给 CPU 工作线程
+        return apiRules
+                .flatMap(obj -> cpuWorkScheduler.run(obj.length(), () -> dataMaskUtil.getPlan(obj, apiId)))
+                .defaultIfEmpty(DataMaskPlan.EMPTY);
+    }
+
+    /**
+     * 按脱敏计划处理响应: 本地规则在网关内执行, 其余规则调用脱敏服务
+     */
+    private Mono<String> execDatamask(DataMaskPlan plan, String s) {
+        if (plan.isEmpty()) {
+            return Mono.just(s);
+        }
+        log.debug("Exec Datamask By ApiRule Start:{}", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date()));
+        Mono<String> local = plan.getLocalFields().isEmpty() ? Mono.just(s)
+                : cpuWorkScheduler.run(s.length(), () -> dataMaskUtil.maskLocal(s, plan.getLocalFields()));
+        if (plan.getRemoteRules().isEmpty()) {
+            return local.doOnNext(x -> log.debug("Exec Datamask By ApiRule End:{}", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date())));
+        }
+        return local.flatMap(masked -> {
+            ExecDatamaskByApiRuleRequest datamaskByApiRuleRequest = new ExecDatamaskByApiRuleRequest();
+            datamaskByApiRuleRequest.setValue(masked);
+            datamaskByApiRuleRequest.setApiRules(plan.getRemoteRules());
+            return dataMaskUtil.execDatamaskByApiRule(datamaskByApiRuleRequest);
+        }).doOnNext(x -> log.debug("Exec Datamask By ApiRule End:{}", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date())));
+    }
+
     @Override
     public int getOrder() {
-        //必须小于-1 才能进方法。
-        return -2;
+        //必须小于-1 才能进方法。ResponseCacheFilter(-2) 在其后, 缓存命中的响应也经过本过滤器脱敏、压缩
+        return -3;
         //系统全局过滤器执行顺序（名称、order）
         //RemoveCachedBodyFilter  HIGHEST_PRECEDENCE = Integer.MIN_VALUE
         //AdaptCachedBodyGlobalFilter HIGHEST_PRECEDENCE = Integer.MIN_VALUE
@@ -210,43 +350,4 @@ public class ResponseBodyFilter implements GlobalFilter, GatewayFilter, Ordered
         //NettyRoutingFilter LOWEST_PRECEDENCE =Integer.MAX_VALUE
         //ForwardRoutingFilter LOWEST_PRECEDENCE =Integer.MAX_VALUE
     }
-
-    /*解码 gzip*/
-    public static byte[] uncompress(byte[] bytes) {
-        if (bytes == null || bytes.length == 0) {
-            return null;
-        }
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
-        try {
-            GZIPInputStream ungzip = new GZIPInputStream(in);
-            byte[] buffer = new byte[256];
-            int n;
-            while ((n = ungzip.read(buffer)) >= 0) {
-                out.write(buffer, 0, n);
-            }
-        } catch (IOException e) {
-            log.error("gzip uncompress error.", e);
-        }
-
-        return out.toByteArray();
-    }
-
-    /*编码 gzip*/
-    public static byte[] compress(String str, String encoding) {
-        if (str == null || str.length() == 0) {
-            return null;
-        }
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        GZIPOutputStream gzip;
-        try {
-            gzip = new GZIPOutputStream(out);
-            gzip.write(str.getBytes(encoding));
-            gzip.close();
-        } catch (IOException e) {
-            log.error("gzip compress error.", e);
-        }
-
-        return out.toByteArray();
-    }
 }
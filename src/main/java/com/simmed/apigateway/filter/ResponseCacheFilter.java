@@ -0,0 +1,323 @@
+package com.simmed.apigateway.filter;
+
+import brave.Tracer;
+import com.simmed.apigateway.dto.CachedResponse;
+import com.simmed.apigateway.dto.GatewayApiDto;
+import com.simmed.apigateway.dto.RpcRequestInfo;
+import com.simmed.apigateway.utils.CachedRequestBody;
+import com.simmed.apigateway.utils.CpuWorkScheduler;
+import com.simmed.apigateway.utils.GatewayApiCatalog;
+import com.simmed.apigateway.utils.RequestCoalescer;
+import com.simmed.apigateway.utils.ResponseCacheUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.PooledDataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR;
+
+/**
+ * 幂等 JSON-RPC 方法的响应缓存与相同请求合并
+ * <p>
+ * 只处理 API 目录中配置了 cacheSeconds 或 coalesce 的方法, 在鉴权之后、请求体转发上游之前查找缓存, 命中时直接输出;
+ * 未命中时相同的并发请求只有第一个转发上游, 其余等待并共享它的响应(见 {@link RequestCoalescer})。
+ * 位于 ResponseBodyFilter 之后, 缓存与共享的是上游的原始响应, 输出时仍按当前用户脱敏、按客户端协商压缩。
+ * 没有 id(通知)或 id 为对象、数组的请求无法按请求改写响应 id, 不查缓存也不合并。
+ * 缓存命中时只输出 Content-Type 与 Content-Encoding, 上游的其他响应头不保存; 合并的请求共享 leader 的全部响应头
+ */
+@Slf4j
+@Component
+public class ResponseCacheFilter implements GlobalFilter, GatewayFilter, Ordered {
+
+    private static final String CACHE_REQUEST_BODY_OBJECT_KEY = "cachedRequestBodyObject";
+    private static final String CACHE_REQUEST_RPC_INFO_KEY = "cachedRequestRpcInfo";
+
+    @Autowired
+    Tracer tracer;
+    @Autowired
+    GatewayApiCatalog gatewayApiCatalog;
+    @Autowired
+    ResponseCacheUtil responseCacheUtil;
+    @Autowired
+    RequestCoalescer requestCoalescer;
+    @Autowired
+    CpuWorkScheduler cpuWorkScheduler;
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private Counter hits;
+    private Counter misses;
+
+    @PostConstruct
+    public void init() {
+        hits = lookups("hit");
+        misses = lookups("miss");
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        if (!responseCacheUtil.isEnabled() && !requestCoalescer.isEnabled()) {
+            return chain.filter(exchange);
+        }
+        RpcRequestInfo rpcInfo = exchange.getAttribute(CACHE_REQUEST_RPC_INFO_KEY);
+        CachedRequestBody requestBody = exchange.getAttribute(CACHE_REQUEST_BODY_OBJECT_KEY);
+        //只处理请求体在内存中的 JSON-RPC 调用
+        if (rpcInfo == null || StringUtils.isBlank(rpcInfo.getMethod()) || requestBody == null || requestBody.isSpilled()) {
+            return chain.filter(exchange);
+        }
+        ServerHttpRequest request = exchange.getRequest();
+        String path = request.getPath().toString();
+        GatewayApiDto api = gatewayApiCatalog.findIdempotentApi(path, rpcInfo.getMethod());
+        if (api == null || rpcInfo.getRawId() == null) {
+            return chain.filter(exchange);
+        }
+        long ttlSeconds = responseCacheUtil.isEnabled() && api.getCacheSeconds() != null ? Math.max(0, api.getCacheSeconds()) : 0;
+        boolean coalescing = requestCoalescer.isEnabled();
+        if (ttlSeconds == 0 && !coalescing) {
+            return chain.filter(exchange);
+        }
+        String user = null;
+        if (Integer.valueOf(1).equals(api.getCacheByUser())) {
+            user = request.getHeaders().getFirst("WeAppAuthorization");
+            if (StringUtils.isBlank(user)) {
+                return chain.filter(exchange);
+            }
+        }
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+        String routeId = route == null ? "" : route.getId();
+        String cacheUser = user;
+        //请求体较大时在 CPU 工作线程上解析 params
+        Mono<String> cacheKey = cpuWorkScheduler.run(requestBody.size(), () -> responseCacheUtil.key(routeId, path,
+                request.getURI().getRawQuery(), rpcInfo.getMethod(), requestBody.toString(), cacheUser))
+                .onErrorResume(e -> {
+                    log.debug("response cache key error, path:{}, method:{}, error:{}", path, rpcInfo.getMethod(), e.getMessage());
+                    return Mono.empty();
+                });
+
+        return cacheKey.map(Optional::of).defaultIfEmpty(Optional.empty()).flatMap(key -> {
+            if (!key.isPresent()) {
+                return chain.filter(exchange);
+            }
+            if (ttlSeconds == 0) {
+                return upstream(exchange, chain, key.get(), 0, rpcInfo.getRawId());
+            }
+            String acceptEncoding = request.getHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING);
+            return responseCacheUtil.get(key.get())
+                    .flatMap(entry -> responseCacheUtil.render(entry, rpcInfo.getRawId(), acceptEncoding))
+                    .onErrorResume(e -> {
+                        log.error("response cache render error, key:{}", key.get(), e);
+                        return Mono.empty();
+                    })
+                    .map(Optional::of).defaultIfEmpty(Optional.empty())
+                    .flatMap(hit -> {
+                        if (hit.isPresent()) {
+                            return writeCached(exchange, hit.get());
+                        }
+                        misses.increment();
+                        tag("miss");
+                        return upstream(exchange, chain, key.get(), ttlSeconds, rpcInfo.getRawId());
+                    });
+        });
+    }
+
+    /**
+     * 命中: 不转发上游, 输出经 ResponseBodyFilter 的装饰器处理
+     */
+    private Mono<Void> writeCached(ServerWebExchange exchange, CachedResponse entry) {
+        hits.increment();
+        tag("hit");
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.OK);
+        HttpHeaders headers = response.getHeaders();
+        if (entry.getContentType() != null) {
+            headers.set(HttpHeaders.CONTENT_TYPE, entry.getContentType());
+            exchange.getAttributes().put(ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR, entry.getContentType());
+        }
+        if (entry.getContentEncoding() != null) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, entry.getContentEncoding());
+        }
+        headers.setContentLength(entry.getBody().length);
+        //缓存的字节只读, 每次输出包装为新的 DataBuffer
+        return response.writeWith(Flux.just(response.bufferFactory().wrap(entry.getBody())));
+    }
+
+    /**
+     * 转发上游; 开启请求合并时, 已有相同请求在途则等待共享它的响应, 其响应不可共享时再自行转发
+     */
+    private Mono<Void> upstream(ServerWebExchange exchange, GatewayFilterChain chain, String key, long ttlSeconds, String rawId) {
+        if (!requestCoalescer.isEnabled()) {
+            return forward(exchange, chain, key, ttlSeconds, null);
+        }
+        RequestCoalescer.Flight flight = requestCoalescer.lead(key, rawId);
+        if (flight != null) {
+            return forward(exchange, chain, key, ttlSeconds, flight).doFinally(signal -> flight.abandon());
+        }
+        return requestCoalescer.follow(key)
+                .map(Optional::of).defaultIfEmpty(Optional.empty())
+                .flatMap(shared -> shared.isPresent() ? writeShared(exchange, shared.get(), rawId)
+                        : forward(exchange, chain, key, ttlSeconds, null));
+    }
+
+    /**
+     * 输出共享的响应: id 相同时直接写出持有引用的切片, 否则合并后解压并改写 id, 以未压缩形式输出
+     */
+    private Mono<Void> writeShared(ServerWebExchange exchange, RequestCoalescer.SharedResponse shared, String rawId) {
+        tag("coalesced");
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(shared.getStatus());
+        HttpHeaders headers = response.getHeaders();
+        shared.getHeaders().forEach((name, values) -> {
+            //跨域头由当前请求自己的 Origin 决定
+            if (!headers.containsKey(name) && !name.regionMatches(true, 0, "Access-Control-", 0, 15)) {
+                headers.put(name, new ArrayList<>(values));
+            }
+        });
+        String contentType = shared.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE);
+        if (contentType != null) {
+            exchange.getAttributes().put(ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR, contentType);
+        }
+        Flux<DataBuffer> slices = Flux.fromIterable(shared.getBody())
+                .doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release);
+        if (rawId.equals(shared.getRawId())) {
+            return response.writeWith(slices);
+        }
+        String encoding = shared.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+        return DataBufferUtils.join(slices)
+                .map(joined -> {
+                    byte[] content = new byte[joined.readableByteCount()];
+                    joined.read(content);
+                    DataBufferUtils.release(joined);
+                    return content;
+                })
+                .flatMap(content -> responseCacheUtil.rewriteId(content, encoding, rawId))
+                .flatMap(content -> {
+                    headers.remove(HttpHeaders.CONTENT_ENCODING);
+                    headers.remove(HttpHeaders.TRANSFER_ENCODING);
+                    headers.setContentLength(content.length);
+                    return response.writeWith(Flux.just(response.bufferFactory().wrap(content)));
+                });
+    }
+
+    /**
+     * 转发上游, 同时复制 200 的 JSON 响应, 完成后写入缓存(ttlSeconds 大于 0 时)并交给合并的请求(flight 不为 null 时)
+     */
+    private Mono<Void> forward(ServerWebExchange exchange, GatewayFilterChain chain, String key, long ttlSeconds,
+                               RequestCoalescer.Flight flight) {
+        ServerHttpResponse originalResponse = exchange.getResponse();
+        ServerHttpResponseDecorator decoratedResponse = new ServerHttpResponseDecorator(originalResponse) {
+            @Override
+            public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                //在 ResponseBodyFilter 改写响应头之前读取上游的响应头
+                HttpHeaders headers = getHeaders();
+                String contentType = exchange.getAttribute(ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR);
+                String encoding = headers.getFirst(HttpHeaders.CONTENT_ENCODING);
+                boolean shareable = HttpStatus.OK.equals(getStatusCode()) && body instanceof Flux
+                        && isShareable(headers, contentType, encoding);
+                boolean caching = shareable && ttlSeconds > 0 && isCacheable(headers);
+                if (flight != null) {
+                    flight.begin(getStatusCode(), headers, shareable);
+                }
+                if (!shareable || (!caching && flight == null)) {
+                    return super.writeWith(body);
+                }
+                int maxEntrySize = responseCacheUtil.getMaxEntrySize();
+                ByteArrayOutputStream captured = new ByteArrayOutputStream();
+                AtomicBoolean overflow = new AtomicBoolean(!caching);
+                Flux<? extends DataBuffer> tee = ((Flux<? extends DataBuffer>) body)
+                        .doOnNext(buffer -> {
+                            if (flight != null) {
+                                flight.add(buffer);
+                            }
+                            if (overflow.get()) {
+                                return;
+                            }
+                            if (captured.size() + buffer.readableByteCount() > maxEntrySize) {
+                                //超过上限不再复制, 不缓存
+                                overflow.set(true);
+                                captured.reset();
+                                return;
+                            }
+                            //asByteBuffer 与 DataBuffer 共享内存, 不改变读位置
+                            ByteBuffer view = buffer.asByteBuffer();
+                            byte[] bytes = new byte[view.remaining()];
+                            view.get(bytes);
+                            captured.write(bytes, 0, bytes.length);
+                        })
+                        .doOnComplete(() -> {
+                            if (flight != null) {
+                                flight.complete();
+                            }
+                            if (!overflow.get() && captured.size() > 0) {
+                                responseCacheUtil.put(key, captured.toByteArray(), encoding, contentType, ttlSeconds);
+                            }
+                        });
+                return super.writeWith(tee);
+            }
+        };
+        return chain.filter(exchange.mutate().response(decoratedResponse).build());
+    }
+
+    /**
+     * 可以共享给合并的请求: JSON、无 Set-Cookie、编码可解压(改写 id 需要)
+     */
+    private boolean isShareable(HttpHeaders headers, String contentType, String encoding) {
+        if (contentType == null || !contentType.contains("application/json")) {
+            return false;
+        }
+        if (headers.containsKey(HttpHeaders.SET_COOKIE)) {
+            return false;
+        }
+        return responseCacheUtil.isSupportedEncoding(encoding);
+    }
+
+    private boolean isCacheable(HttpHeaders headers) {
+        String cacheControl = headers.getCacheControl();
+        return cacheControl == null || !(cacheControl.contains("no-store") || cacheControl.contains("private"));
+    }
+
+    private void tag(String result) {
+        if (tracer != null && tracer.currentSpan() != null) {
+            tracer.currentSpan().tag("apigateway.response.cache", result);
+        }
+    }
+
+    private Counter lookups(String result) {
+        return Counter.builder("gateway.response.cache.lookups")
+                .description("Response cache lookups of cacheable JSON-RPC methods")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public int getOrder() {
+        //在 ResponseBodyFilter(-3) 之后、NettyWriteResponseFilter(-1) 之前
+        return -2;
+    }
+}
@@ -0,0 +1,54 @@
+package com.simmed.apigateway.filter;
+
+import com.simmed.apigateway.utils.GatewayWarmUp;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR;
+
+/**
+ * 启动预热的合成请求在转发上游之前由这里返回合成响应, 经过 ResponseBodyFilter 等过滤器的响应处理, 不访问上游
+ */
+@Component
+public class WarmUpFilter implements GlobalFilter, GatewayFilter, Ordered {
+
+    private static final String CONTENT_TYPE = "application/json;charset=UTF-8";
+
+    @Autowired
+    GatewayWarmUp gatewayWarmUp;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        if (!gatewayWarmUp.isWarmUpRequest(exchange.getRequest())) {
+            return chain.filter(exchange);
+        }
+        String encoding = gatewayWarmUp.responseEncoding(exchange.getRequest().getHeaders().getFirst(GatewayWarmUp.WARM_UP_ENCODING_HEADER));
+        byte[] body = gatewayWarmUp.responseBody(encoding);
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.OK);
+        HttpHeaders headers = response.getHeaders();
+        headers.set(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE);
+        exchange.getAttributes().put(ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR, CONTENT_TYPE);
+        if (!"identity".equals(encoding)) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, encoding);
+        }
+        headers.setContentLength(body.length);
+        return response.writeWith(Flux.just(response.bufferFactory().wrap(body)));
+    }
+
+    @Override
+    public int getOrder() {
+        //在 NettyWriteResponseFilter(-1) 之后、负载均衡与路由转发之前
+        return 1;
+    }
+}
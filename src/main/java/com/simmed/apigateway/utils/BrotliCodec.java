@@ -0,0 +1,369 @@
+package com.simmed.apigateway.utils;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.decoder.DecoderJNI;
+import com.aayushatharva.brotli4j.encoder.BrotliOutputStream;
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.PooledDataBuffer;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Brotli 编解码
+ * <p>
+ * native 库在启动时加载一次, 加载失败时 {@link #isAvailable()} 为 false, br 响应不做处理。
+ * 压缩质量与窗口默认取 gateway.brotli.quality / window, 路由 metadata 中的 brotli.quality / brotli.window 优先。
+ * 单次处理的数据较大时交给 {@link CpuWorkScheduler} 执行, 避免 event-loop 长时间执行 native 压缩
+ */
+@Slf4j
+@Component
+public class BrotliCodec {
+
+    public static final String QUALITY_METADATA = "brotli.quality";
+    public static final String WINDOW_METADATA = "brotli.window";
+
+    private static final int CHUNK_SIZE = 16384;
+
+    //0-11, 默认 11 对大响应非常慢, 4 与 gzip 6 的速度相当且压缩率更好
+    @Value("${gateway.brotli.quality:4}")
+    private int quality;
+    //10-24, 窗口大小 2^window - 16 字节
+    @Value("${gateway.brotli.window:22}")
+    private int window;
+
+    @Autowired
+    private CpuWorkScheduler cpuWorkScheduler;
+
+    private volatile boolean available;
+    private Encoder.Parameters defaultParameters;
+
+    @PostConstruct
+    public void init() {
+        try {
+            Brotli4jLoader.ensureAvailability();
+            available = true;
+        } catch (Throwable e) {
+            log.error("Brotli native library unavailable, br responses will not be rewritten", e);
+        }
+        defaultParameters = parameters(quality, window);
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * 路由的压缩参数
+     */
+    public Encoder.Parameters parameters(Route route) {
+        Map<String, Object> metadata = route == null ? null : route.getMetadata();
+        if (metadata == null || (!metadata.containsKey(QUALITY_METADATA) && !metadata.containsKey(WINDOW_METADATA))) {
+            return defaultParameters;
+        }
+        return parameters(intValue(metadata.get(QUALITY_METADATA), quality), intValue(metadata.get(WINDOW_METADATA), window));
+    }
+
+    private static Encoder.Parameters parameters(int quality, int window) {
+        return new Encoder.Parameters()
+                .setQuality(Math.max(0, Math.min(11, quality)))
+                .setWindow(Math.max(10, Math.min(24, window)))
+                .setMode(Encoder.Mode.TEXT);
+    }
+
+    private static int intValue(Object value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException e) {
+            log.error("invalid brotli route metadata:{}", value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * 解压完整的 br 数据
+     */
+    public Mono<byte[]> decompress(byte[] content) {
+        return run(content.length, () -> {
+            StreamDecoder decoder = new StreamDecoder(content.length);
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, content.length * 4));
+                decoder.process(content, 0, content.length, out);
+                decoder.checkFinished(out);
+                return out.toByteArray();
+            } finally {
+                decoder.close();
+            }
+        });
+    }
+
+    /**
+     * 压缩为完整的 br 数据
+     */
+    public Mono<byte[]> compress(byte[] content, Encoder.Parameters parameters) {
+        return run(content.length, () -> Encoder.compress(content, parameters));
+    }
+
+    /**
+     * 流式解压, 取得输入 buffer 的所有权
+     */
+    public Flux<DataBuffer> decode(Flux<? extends DataBuffer> input, DataBufferFactory bufferFactory) {
+        return Flux.defer(() -> {
+            StreamDecoder decoder = new StreamDecoder(CHUNK_SIZE);
+            return input.concatMap(buffer -> run(buffer.readableByteCount(), () -> decoder.decode(buffer, bufferFactory)))
+                    .concatWith(Mono.fromCallable(() -> decoder.finish(bufferFactory)))
+                    .concatMapIterable(buffers -> buffers)
+                    .doFinally(signal -> decoder.close());
+        }).doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release);
+    }
+
+    /**
+     * 流式压缩, 取得输入 buffer 的所有权
+     */
+    public Flux<DataBuffer> encode(Flux<? extends DataBuffer> input, DataBufferFactory bufferFactory, Encoder.Parameters parameters) {
+        return Flux.defer(() -> {
+            StreamEncoder encoder = new StreamEncoder(parameters);
+            return input.concatMap(buffer -> run(buffer.readableByteCount(), () -> encoder.encode(buffer, bufferFactory)))
+                    .concatWith(Mono.fromCallable(() -> encoder.finish(bufferFactory)))
+                    .concatMapIterable(buffers -> buffers)
+                    .doFinally(signal -> encoder.close());
+        }).doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release);
+    }
+
+    private <T> Mono<T> run(int size, Callable<T> task) {
+        return cpuWorkScheduler.run(size, task);
+    }
+
+    /**
+     * 把写入的数据转为 DataBuffer
+     */
+    private static final class BufferSink extends OutputStream {
+        private final List<DataBuffer> buffers = new ArrayList<>();
+        private DataBufferFactory bufferFactory;
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            //取消时关闭编码器的输出直接丢弃
+            if (length > 0 && bufferFactory != null) {
+                buffers.add(bufferFactory.allocateBuffer(length).write(bytes, offset, length));
+            }
+        }
+
+        List<DataBuffer> drain() {
+            if (buffers.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<DataBuffer> result = new ArrayList<>(buffers);
+            buffers.clear();
+            return result;
+        }
+
+        void discard() {
+            buffers.forEach(DataBufferUtils::release);
+            buffers.clear();
+        }
+    }
+
+    /**
+     * 单个响应的解压状态, 基于 brotli 的 push 接口, 输入到达即解压
+     */
+    private static final class StreamDecoder {
+        private final BufferSink sink = new BufferSink();
+        private final byte[] in = new byte[CHUNK_SIZE];
+        private DecoderJNI.Wrapper decoder;
+        private boolean started;
+
+        StreamDecoder(int inputBufferSize) {
+            try {
+                decoder = new DecoderJNI.Wrapper(Math.max(1, Math.min(inputBufferSize, CHUNK_SIZE)));
+            } catch (IOException e) {
+                throw Exceptions.propagate(e);
+            }
+        }
+
+        synchronized List<DataBuffer> decode(DataBuffer buffer, DataBufferFactory bufferFactory) throws IOException {
+            sink.bufferFactory = bufferFactory;
+            try {
+                if (decoder == null) {
+                    return Collections.emptyList();
+                }
+                int remaining = buffer.readableByteCount();
+                while (remaining > 0) {
+                    int count = Math.min(remaining, in.length);
+                    buffer.read(in, 0, count);
+                    process(in, 0, count, sink);
+                    remaining -= count;
+                }
+                return sink.drain();
+            } catch (IOException e) {
+                sink.discard();
+                throw e;
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        }
+
+        synchronized List<DataBuffer> finish(DataBufferFactory bufferFactory) throws IOException {
+            sink.bufferFactory = bufferFactory;
+            if (decoder == null) {
+                return Collections.emptyList();
+            }
+            checkFinished(sink);
+            return sink.drain();
+        }
+
+        void process(byte[] bytes, int offset, int length, OutputStream out) throws IOException {
+            started |= length > 0;
+            while (true) {
+                switch (decoder.getStatus()) {
+                    case DONE:
+                        //忽略结束后的多余数据
+                        pullAll(out);
+                        return;
+                    case OK:
+                        decoder.push(0);
+                        break;
+                    case NEEDS_MORE_OUTPUT:
+                        pull(out);
+                        break;
+                    case NEEDS_MORE_INPUT:
+                        if (decoder.hasOutput()) {
+                            pull(out);
+                            break;
+                        }
+                        if (length == 0) {
+                            return;
+                        }
+                        ByteBuffer input = decoder.getInputBuffer();
+                        input.clear();
+                        int count = Math.min(input.remaining(), length);
+                        input.put(bytes, offset, count);
+                        offset += count;
+                        length -= count;
+                        decoder.push(count);
+                        break;
+                    default:
+                        throw new IOException("Brotli corrupted input");
+                }
+            }
+        }
+
+        void checkFinished(OutputStream out) throws IOException {
+            pullAll(out);
+            if (started && decoder.getStatus() != DecoderJNI.Status.DONE) {
+                throw new IOException("Unexpected end of Brotli stream");
+            }
+        }
+
+        private void pullAll(OutputStream out) throws IOException {
+            while (decoder.hasOutput()) {
+                pull(out);
+            }
+        }
+
+        private void pull(OutputStream out) throws IOException {
+            ByteBuffer output = decoder.pull();
+            byte[] chunk = new byte[output.remaining()];
+            output.get(chunk);
+            out.write(chunk, 0, chunk.length);
+        }
+
+        synchronized void close() {
+            if (decoder != null) {
+                decoder.destroy();
+                decoder = null;
+            }
+        }
+    }
+
+    /**
+     * 单个响应的压缩状态
+     */
+    private static final class StreamEncoder {
+        private final BufferSink sink = new BufferSink();
+        private final byte[] in = new byte[CHUNK_SIZE];
+        private BrotliOutputStream encoder;
+
+        StreamEncoder(Encoder.Parameters parameters) {
+            try {
+                encoder = new BrotliOutputStream(sink, parameters, CHUNK_SIZE);
+            } catch (IOException e) {
+                throw Exceptions.propagate(e);
+            }
+        }
+
+        synchronized List<DataBuffer> encode(DataBuffer buffer, DataBufferFactory bufferFactory) throws IOException {
+            sink.bufferFactory = bufferFactory;
+            try {
+                if (encoder == null) {
+                    return Collections.emptyList();
+                }
+                int remaining = buffer.readableByteCount();
+                while (remaining > 0) {
+                    int count = Math.min(remaining, in.length);
+                    buffer.read(in, 0, count);
+                    encoder.write(in, 0, count);
+                    remaining -= count;
+                }
+                return sink.drain();
+            } catch (IOException e) {
+                sink.discard();
+                throw e;
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        }
+
+        synchronized List<DataBuffer> finish(DataBufferFactory bufferFactory) throws IOException {
+            sink.bufferFactory = bufferFactory;
+            if (encoder == null) {
+                return Collections.emptyList();
+            }
+            BrotliOutputStream stream = encoder;
+            encoder = null;
+            stream.close();
+            return sink.drain();
+        }
+
+        //未正常结束(取消或出错)时释放 native 状态, 输出丢弃
+        synchronized void close() {
+            if (encoder != null) {
+                try {
+                    encoder.close();
+                } catch (IOException e) {
+                    log.warn("Brotli encoder close error", e);
+                } finally {
+                    encoder = null;
+                    sink.discard();
+                }
+            }
+        }
+    }
+}
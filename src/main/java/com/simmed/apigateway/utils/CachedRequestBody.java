@@ -0,0 +1,200 @@
+package com.simmed.apigateway.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.PooledDataBuffer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 缓存的请求体
+ * <p>
+ * 不超过 inMemoryThreshold 时直接持有 Netty 读入的原始 DataBuffer(各持有一次引用), 转发时按引用计数切片重放,
+ * 不复制不转码; 超过后已读内容与后续数据写入临时文件(在 boundedElastic 线程上), 堆内存不随请求体增长,
+ * 转发时从文件流式读取。字符串视图只在 {@link #toString()} 被调用(如 debug 日志)时才解码, 落盘的请求体不解码。
+ * 通过 {@link #append(DataBuffer)} 顺序写入, 必须在请求结束时调用 {@link #release()}
+ */
+@Slf4j
+public class CachedRequestBody {
+
+    private static final int FILE_READ_BUFFER_SIZE = 8192;
+
+    private final List<DataBuffer> buffers = new ArrayList<>();
+    private final Charset charset;
+    private final int inMemoryThreshold;
+    private final long maxSize;
+    private final Path spillDirectory;
+    private final AtomicBoolean released = new AtomicBoolean();
+    private long size;
+    private Path spillFile;
+    private FileChannel spillChannel;
+    private volatile String decoded;
+
+    public CachedRequestBody(Charset charset, int inMemoryThreshold, long maxSize, Path spillDirectory) {
+        this.charset = charset;
+        this.inMemoryThreshold = inMemoryThreshold;
+        this.maxSize = maxSize;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * 追加一段请求体, 取得该 buffer 的所有权。调用方须保证顺序调用(如 concatMap)
+     */
+    public synchronized Mono<Void> append(DataBuffer buffer) {
+        if (released.get()) {
+            DataBufferUtils.release(buffer);
+            return Mono.empty();
+        }
+        size += buffer.readableByteCount();
+        if (size > maxSize) {
+            DataBufferUtils.release(buffer);
+            return Mono.error(new DataBufferLimitException("Exceeded limit on max bytes to buffer : " + maxSize));
+        }
+        if (spillFile == null && size <= inMemoryThreshold) {
+            buffers.add(buffer);
+            return Mono.empty();
+        }
+        //写文件任务执行前请求被取消时由取消方释放, 二者只有一方取得 buffer
+        AtomicBoolean taken = new AtomicBoolean();
+        return Mono.<Void>fromRunnable(() -> {
+            if (taken.compareAndSet(false, true)) {
+                spill(buffer);
+            }
+        })
+                .subscribeOn(Schedulers.boundedElastic())
+                .doOnCancel(() -> {
+                    if (taken.compareAndSet(false, true)) {
+                        DataBufferUtils.release(buffer);
+                    }
+                });
+    }
+
+    //与 release 互斥, 避免取消请求时重复释放或写入已关闭的文件
+    private synchronized void spill(DataBuffer buffer) {
+        try {
+            if (released.get()) {
+                return;
+            }
+            if (spillChannel == null) {
+                spillFile = Files.createTempFile(spillDirectory, "apigateway-body-", ".tmp");
+                spillChannel = FileChannel.open(spillFile, StandardOpenOption.WRITE);
+                log.debug("Request body exceeds {} bytes, spill to:{}", inMemoryThreshold, spillFile);
+                for (DataBuffer cached : buffers) {
+                    write(cached);
+                    DataBufferUtils.release(cached);
+                }
+                buffers.clear();
+            }
+            write(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException("spill request body error", e);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    private void write(DataBuffer buffer) throws IOException {
+        ByteBuffer byteBuffer = buffer.asByteBuffer();
+        while (byteBuffer.hasRemaining()) {
+            spillChannel.write(byteBuffer);
+        }
+    }
+
+    /**
+     * 重放请求体, 由下游负责释放
+     *
+     * @param bufferFactory 落盘时读取文件使用
+     */
+    public Flux<DataBuffer> replay(DataBufferFactory bufferFactory) {
+        if (spillFile != null) {
+            return DataBufferUtils.read(spillFile, bufferFactory, FILE_READ_BUFFER_SIZE);
+        }
+        //每次订阅得到一组共享底层内存的切片
+        return Flux.defer(() -> Flux.fromIterable(buffers)
+                .map(buffer -> buffer.retainedSlice(buffer.readPosition(), buffer.readableByteCount())))
+                .doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * 释放持有的 DataBuffer 或临时文件, 可重复调用
+     */
+    public synchronized void release() {
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+        buffers.forEach(DataBufferUtils::release);
+        buffers.clear();
+        if (spillFile != null) {
+            Schedulers.boundedElastic().schedule(() -> {
+                try {
+                    if (spillChannel != null) {
+                        spillChannel.close();
+                    }
+                    Files.deleteIfExists(spillFile);
+                } catch (IOException e) {
+                    log.error("delete request body spill file error:{}", spillFile, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * 按请求的字符集解码, 首次调用时生成
+     */
+    @Override
+    public String toString() {
+        if (spillFile != null) {
+            return "<" + size + " bytes spilled to disk>";
+        }
+        String value = decoded;
+        if (value == null) {
+            if (released.get()) {
+                return "";
+            }
+            if (buffers.size() == 1) {
+                DataBuffer buffer = buffers.get(0);
+                value = buffer.toString(buffer.readPosition(), buffer.readableByteCount(), charset);
+            } else {
+                //多字节字符可能跨 buffer, 合并后再解码
+                byte[] bytes = new byte[(int) size];
+                int offset = 0;
+                for (DataBuffer buffer : buffers) {
+                    int count = buffer.readableByteCount();
+                    for (int i = 0; i < count; i++) {
+                        bytes[offset++] = buffer.getByte(buffer.readPosition() + i);
+                    }
+                }
+                value = new String(bytes, charset);
+            }
+            decoded = value;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,70 @@
+package com.simmed.apigateway.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 简单熔断器
+ * <p>
+ * 连续失败达到 failureThreshold 次后打开, 打开期间直接拒绝; 经过 openMillis 后半开, 放行一次探测,
+ * 探测成功则关闭, 失败则重新打开。探测请求被取消而未回报结果时, 再过 openMillis 会放行下一次探测。
+ * 下次允许探测的时间保存在 probeAt 中, 以 CAS 推后, 每个 openMillis 周期只有一个调用者拿到探测机会
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    //打开或半开时, 不早于该时间(毫秒)才放行下一次探测
+    private final AtomicLong probeAt = new AtomicLong();
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return 是否允许本次调用
+     */
+    public boolean tryAcquire() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        long at = probeAt.get();
+        if (now < at) {
+            return false;
+        }
+        //打开超时转为半开, 或半开的探测迟迟未回报; 推后 probeAt 成功的线程拿到探测机会
+        if (probeAt.compareAndSet(at, now + openMillis)) {
+            state.set(State.HALF_OPEN);
+            return true;
+        }
+        return false;
+    }
+
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        state.set(State.CLOSED);
+    }
+
+    public void onFailure() {
+        if (state.get() == State.HALF_OPEN || consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            consecutiveFailures.set(0);
+            //先设置探测时间再打开, 看到 OPEN 的线程不会用到旧的时间
+            probeAt.set(System.currentTimeMillis() + openMillis);
+            state.set(State.OPEN);
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+}
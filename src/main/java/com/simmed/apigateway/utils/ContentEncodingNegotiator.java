@@ -0,0 +1,206 @@
+package com.simmed.apigateway.utils;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 响应压缩协商
+ * <p>
+ * 按客户端 Accept-Encoding 的 q 值、响应类型与大小选择 br / gzip / 不压缩(null):
+ * 关闭、类型不在 mimeTypes 中或已知大小小于 minSize 时不压缩; br 与 gzip 都可接受时, q 值高者优先, 相同时按 preferBrotli。
+ * 参与协商的响应(无论是否压缩)都声明 Vary: Accept-Encoding; 网关重新编码的输出与上游字节不同, 强 ETag 改为弱 ETag。
+ * 网关压缩的输出按路由记录压缩比(输出/输入)到 gateway.response.compression.ratio
+ */
+@Component
+public class ContentEncodingNegotiator {
+
+    public static final String GZIP = "gzip";
+    public static final String BR = "br";
+
+    @Value("${gateway.compression.enabled:true}")
+    private boolean enabled;
+    //小于该字节数的响应不压缩, 压缩头与 CPU 开销得不偿失
+    @Value("${gateway.compression.minSize:1024}")
+    private long minSize;
+    @Value("${gateway.compression.mimeTypes:application/json,application/javascript,application/xml,text/html,text/xml,text/plain,text/css}")
+    private String mimeTypes;
+    @Value("${gateway.compression.preferBrotli:true}")
+    private boolean preferBrotli;
+
+    @Autowired
+    private GzipCodec gzipCodec;
+    @Autowired
+    private BrotliCodec brotliCodec;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private CpuWorkScheduler cpuWorkScheduler;
+
+    private List<String> compressibleTypes;
+
+    @PostConstruct
+    public void init() {
+        List<String> types = new ArrayList<>();
+        for (String type : StringUtils.split(mimeTypes, ',')) {
+            if (StringUtils.isNotBlank(type)) {
+                types.add(type.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        compressibleTypes = types;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 选择网关输出的编码
+     *
+     * @param acceptEncoding 客户端 Accept-Encoding
+     * @param contentType    响应 Content-Type
+     * @param size           未压缩的大小, 未知时为 -1
+     * @return br / gzip, 不压缩时为 null
+     */
+    public String negotiate(String acceptEncoding, String contentType, long size) {
+        if (StringUtils.isBlank(acceptEncoding) || !isNegotiable(contentType, size)) {
+            return null;
+        }
+        double br = brotliCodec.isAvailable() ? quality(acceptEncoding, BR) : 0;
+        double gzip = quality(acceptEncoding, GZIP);
+        if (br > 0 && (br > gzip || (br == gzip && preferBrotli))) {
+            return BR;
+        }
+        return gzip > 0 ? GZIP : null;
+    }
+
+    /**
+     * 响应是否参与压缩协商, 即输出编码是否随 Accept-Encoding 变化
+     *
+     * @param size 未压缩的大小, 未知时为 -1
+     */
+    public boolean isNegotiable(String contentType, long size) {
+        return enabled && isCompressible(contentType) && (size < 0 || size >= minSize);
+    }
+
+    private boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        for (String compressible : compressibleTypes) {
+            if (type.startsWith(compressible)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Accept-Encoding 中某个编码的 q 值, 未列出时取 * 的 q 值, 都没有则为 0
+     */
+    static double quality(String acceptEncoding, String coding) {
+        double wildcard = 0;
+        for (String item : StringUtils.split(acceptEncoding, ',')) {
+            String[] parts = StringUtils.split(item, ';');
+            if (parts.length == 0) {
+                continue;
+            }
+            String name = parts[0].trim();
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase(coding)) {
+                return q;
+            }
+            if ("*".equals(name)) {
+                wildcard = q;
+            }
+        }
+        return wildcard;
+    }
+
+    /**
+     * 设置网关重新编码后的 Content-Encoding, 声明 Vary: Accept-Encoding, 上游的强 ETag 改为弱 ETag
+     */
+    public static void applyContentEncoding(HttpHeaders headers, String encoding) {
+        if (encoding == null) {
+            headers.remove(HttpHeaders.CONTENT_ENCODING);
+        } else {
+            headers.set(HttpHeaders.CONTENT_ENCODING, encoding);
+        }
+        addVary(headers);
+        String eTag = headers.getFirst(HttpHeaders.ETAG);
+        if (eTag != null && !eTag.startsWith("W/")) {
+            headers.set(HttpHeaders.ETAG, "W/" + eTag);
+        }
+    }
+
+    /**
+     * 声明 Vary: Accept-Encoding
+     */
+    public static void addVary(HttpHeaders headers) {
+        if (!headers.getVary().contains(HttpHeaders.ACCEPT_ENCODING)) {
+            headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+    }
+
+    /**
+     * 流式压缩, 结束时记录压缩比
+     */
+    public Flux<DataBuffer> encode(Flux<? extends DataBuffer> body, String encoding, DataBufferFactory bufferFactory, Route route) {
+        AtomicLong input = new AtomicLong();
+        AtomicLong output = new AtomicLong();
+        Flux<? extends DataBuffer> counted = body.doOnNext(buffer -> input.addAndGet(buffer.readableByteCount()));
+        Flux<DataBuffer> encoded = BR.equals(encoding)
+                ? brotliCodec.encode(counted, bufferFactory, brotliCodec.parameters(route))
+                : gzipCodec.encode(counted, bufferFactory);
+        return encoded.doOnNext(buffer -> output.addAndGet(buffer.readableByteCount()))
+                .doOnComplete(() -> record(route, encoding, input.get(), output.get()));
+    }
+
+    /**
+     * 压缩完整的数据, 并记录压缩比
+     */
+    public Mono<byte[]> encode(byte[] content, String encoding, Route route) {
+        Mono<byte[]> encoded = BR.equals(encoding)
+                ? brotliCodec.compress(content, brotliCodec.parameters(route))
+                : cpuWorkScheduler.run(content.length, () -> gzipCodec.encode(content));
+        return encoded.doOnNext(bytes -> record(route, encoding, content.length, bytes.length));
+    }
+
+    private void record(Route route, String encoding, long input, long output) {
+        if (input <= 0) {
+            return;
+        }
+        DistributionSummary.builder("gateway.response.compression.ratio")
+                .description("Compressed / uncompressed size of responses compressed by the gateway")
+                .tag("route", route == null ? "unknown" : route.getId())
+                .tag("encoding", encoding)
+                .register(meterRegistry)
+                .record((double) output / input);
+    }
+}
@@ -0,0 +1,133 @@
+package com.simmed.apigateway.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 过滤器中 CPU 密集工作(解压、脱敏、压缩、大段 JSON 解析)的专用线程池
+ * <p>
+ * 线程数与队列长度有界; 队列满时计数并转交 Schedulers.boundedElastic() 执行, 不回到提交任务的线程(通常是 event-loop),
+ * boundedElastic 也满时任务以 RejectedExecutionException 失败。小于 offloadThreshold 字节的工作直接在当前线程执行, 切换线程的开销比工作本身大。
+ * 导出队列深度 gateway.cpu.queue.depth、排队时间 gateway.cpu.queue.wait 与拒绝次数 gateway.cpu.rejections
+ */
+@Slf4j
+@Component
+public class CpuWorkScheduler {
+
+    //0 表示 CPU 核数
+    @Value("${gateway.cpuWorker.threads:0}")
+    private int threads;
+    @Value("${gateway.cpuWorker.queueSize:1000}")
+    private int queueSize;
+    @Value("${gateway.cpuWorker.offloadThreshold:65536}")
+    private long offloadThreshold;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private ThreadPoolExecutor executor;
+    private Scheduler scheduler;
+    private Timer queueWait;
+    private Counter rejections;
+
+    @PostConstruct
+    public void init() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        queueWait = Timer.builder("gateway.cpu.queue.wait")
+                .description("Time CPU-heavy filter work waits for a worker")
+                .register(meterRegistry);
+        rejections = Counter.builder("gateway.cpu.rejections")
+                .description("CPU-heavy filter work handed to boundedElastic because the queue was full")
+                .register(meterRegistry);
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread thread = new WorkerThread(r, "gateway-cpu-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (r, e) -> {
+                    rejections.increment();
+                    if (e.isShutdown()) {
+                        throw new RejectedExecutionException("CpuWorkScheduler is shut down");
+                    }
+                    Schedulers.boundedElastic().schedule(r);
+                }) {
+            @Override
+            public void execute(Runnable command) {
+                long submitted = System.nanoTime();
+                super.execute(() -> {
+                    queueWait.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+                    command.run();
+                });
+            }
+        };
+        Gauge.builder("gateway.cpu.queue.depth", executor, e -> e.getQueue().size())
+                .description("CPU-heavy filter work waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("gateway.cpu.active", executor, ThreadPoolExecutor::getActiveCount)
+                .register(meterRegistry);
+        scheduler = Schedulers.fromExecutorService(executor, "gateway-cpu");
+        log.info("CpuWorkScheduler started, threads:{}, queueSize:{}", poolSize, queueSize);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.dispose();
+        executor.shutdown();
+    }
+
+    public Scheduler scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * 执行一段 CPU 工作, size 达到阈值且不在工作线程上时切换到工作线程
+     *
+     * @param size 待处理的数据量(字节), 用于判断是否值得切换线程
+     */
+    public <T> Mono<T> run(long size, Callable<T> task) {
+        //订阅时判断当前线程
+        return Mono.defer(() -> {
+            Mono<T> mono = Mono.fromCallable(task);
+            return shouldOffload(size) ? mono.subscribeOn(scheduler) : mono;
+        });
+    }
+
+    /**
+     * 大小未知(size 为 -1)或达到阈值的数据流, 之后的处理切换到工作线程
+     */
+    public <T> Flux<T> offload(Flux<T> flux, long size) {
+        return shouldOffload(size < 0 ? Long.MAX_VALUE : size) ? flux.publishOn(scheduler, 1) : flux;
+    }
+
+    private boolean shouldOffload(long size) {
+        return size >= offloadThreshold && !(Thread.currentThread() instanceof WorkerThread);
+    }
+
+    private static final class WorkerThread extends Thread {
+        WorkerThread(Runnable target, String name) {
+            super(target, name);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.simmed.apigateway.utils;
+
+/**
+ * 网关内置的脱敏算法, 通过 gateway.datamask.localRules 与脱敏服务的 ruleId 对应
+ */
+public enum DataMaskAlgorithm {
+
+    //手机号: 保留前3后4
+    MOBILE {
+        @Override
+        public String mask(String value) {
+            return keep(value, 3, 4);
+        }
+    },
+    //身份证: 保留前3后4
+    ID_CARD {
+        @Override
+        public String mask(String value) {
+            return keep(value, 3, 4);
+        }
+    },
+    //银行卡: 保留后4
+    BANK_CARD {
+        @Override
+        public String mask(String value) {
+            return keep(value, 0, 4);
+        }
+    },
+    //姓名: 保留第一个字
+    NAME {
+        @Override
+        public String mask(String value) {
+            return keep(value, 1, 0);
+        }
+    },
+    //邮箱: 保留用户名首字符和域名
+    EMAIL {
+        @Override
+        public String mask(String value) {
+            int at = value.indexOf('@');
+            if (at <= 0) {
+                return keep(value, 0, 0);
+            }
+            return keep(value.substring(0, at), 1, 0) + value.substring(at);
+        }
+    },
+    //地址: 保留前6个字
+    ADDRESS {
+        @Override
+        public String mask(String value) {
+            return keep(value, 6, 0);
+        }
+    },
+    //全部遮盖
+    ALL {
+        @Override
+        public String mask(String value) {
+            return keep(value, 0, 0);
+        }
+    };
+
+    private static final char MASK_CHAR = '*';
+
+    public abstract String mask(String value);
+
+    /**
+     * 保留首尾若干字符, 其余替换为 *, 长度不足时全部替换
+     */
+    static String keep(String value, int head, int tail) {
+        int length = value.length();
+        char[] chars = new char[length];
+        boolean tooShort = length <= head + tail;
+        for (int i = 0; i < length; i++) {
+            chars[i] = !tooShort && (i < head || i >= length - tail) ? value.charAt(i) : MASK_CHAR;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,43 @@
+package com.simmed.apigateway.utils;
+
+import com.simmed.apigateway.dto.ApiRuleDto;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 某个API的脱敏规则编译结果: 网关本地执行的字段, 以及需要交给 datamask 服务的规则
+ */
+public final class DataMaskPlan {
+
+    public static final DataMaskPlan EMPTY = new DataMaskPlan(Collections.emptyMap(), Collections.emptyList());
+
+    //字段名(小写) -> 算法
+    private final Map<String, DataMaskAlgorithm> localFields;
+    private final List<ApiRuleDto> remoteRules;
+
+    DataMaskPlan(Map<String, DataMaskAlgorithm> localFields, List<ApiRuleDto> remoteRules) {
+        this.localFields = localFields;
+        this.remoteRules = remoteRules;
+    }
+
+    public Map<String, DataMaskAlgorithm> getLocalFields() {
+        return localFields;
+    }
+
+    public List<ApiRuleDto> getRemoteRules() {
+        return remoteRules;
+    }
+
+    public boolean isEmpty() {
+        return localFields.isEmpty() && remoteRules.isEmpty();
+    }
+
+    /**
+     * 是否全部规则都可在网关内执行
+     */
+    public boolean isLocalOnly() {
+        return !localFields.isEmpty() && remoteRules.isEmpty();
+    }
+}
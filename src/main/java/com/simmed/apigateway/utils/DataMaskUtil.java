@@ -1,24 +1,47 @@
 package com.simmed.apigateway.utils;
 
+import com.alibaba.fastjson.JSON;
 import com.alibaba.nacos.api.naming.NamingService;
-import com.alibaba.nacos.api.naming.pojo.Instance;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.simmed.apigateway.dto.ApiRuleDto;
 import com.simmed.apigateway.dto.ExecDatamaskByApiRuleRequest;
 import com.simmed.apigateway.dto.RpcRequest;
 import com.simmed.apigateway.dto.RpcResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+@Slf4j
 @Component
 public class DataMaskUtil {
     @Autowired
-    private RestTemplate restTemplate;
+    private WebClient datamaskWebClient;
+    @Autowired
+    private MeterRegistry meterRegistry;
     @Value("${spring.cloud.nacos.discovery.group:DEFAULT_GROUP}")
     private String group;
     @Autowired
@@ -28,41 +51,225 @@ public class DataMaskUtil {
     private final String serviceUrl = "/api/datamask/masking";
     private final String rpcMethod = "execDatamaskByApiRule";
 
-    private String getUrl() {
+    //本地执行的脱敏规则, 格式 ruleId:算法, 如 1:MOBILE,2:ID_CARD, 算法见 DataMaskAlgorithm
+    @Value("${gateway.datamask.localRules:}")
+    private String localRules;
+    @Value("${gateway.datamask.planCacheSize:10000}")
+    private long planCacheSize;
+    private Map<Integer, DataMaskAlgorithm> localAlgorithms = Collections.emptyMap();
+    //脱敏规则 JSON -> apiId -> 脱敏计划
+    private Cache<String, Map<String, DataMaskPlan>> plans;
+    private final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    //单次调用脱敏服务的超时(毫秒), 包括排队获取连接的时间
+    @Value("${gateway.datamask.timeout:2000}")
+    private long timeout;
+    //同时进行中的调用上限, 超出直接走降级
+    @Value("${gateway.datamask.maxInFlight:200}")
+    private int maxInFlight;
+    @Value("${gateway.datamask.circuitBreaker.failureThreshold:5}")
+    private int failureThreshold;
+    @Value("${gateway.datamask.circuitBreaker.openMillis:10000}")
+    private long openMillis;
+    //调用失败或被拒绝时的降级策略: PASS 返回未脱敏的原值, MASK_ALL 将远程规则涉及的字段在本地整体遮盖
+    @Value("${gateway.datamask.fallback:PASS}")
+    private String fallback;
+    private boolean fallbackMaskAll;
+    private CircuitBreaker circuitBreaker;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private Counter successCalls;
+    private Counter failedCalls;
+    private Counter circuitOpenRejections;
+    private Counter inFlightRejections;
 
-        String url = "";
-        Instance ins = null;
+    //连续失败 ejectFailures 次的实例暂时摘除 ejectMillis 毫秒
+    @Value("${gateway.datamask.balancer.ejectFailures:3}")
+    private int ejectFailures;
+    @Value("${gateway.datamask.balancer.ejectMillis:30000}")
+    private long ejectMillis;
+    private InstanceBalancer balancer;
+
+    @PostConstruct
+    public void init() {
+        Map<Integer, DataMaskAlgorithm> algorithms = new HashMap<>();
+        for (String item : StringUtils.split(localRules, ',')) {
+            String[] pair = StringUtils.split(item.trim(), ':');
+            if (pair.length != 2) {
+                continue;
+            }
+            try {
+                algorithms.put(Integer.valueOf(pair[0].trim()), DataMaskAlgorithm.valueOf(pair[1].trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                log.error("gateway.datamask.localRules invalid item:{}", item);
+            }
+        }
+        localAlgorithms = algorithms;
+        plans = Caffeine.newBuilder().maximumSize(planCacheSize).build();
+
+        fallbackMaskAll = "MASK_ALL".equalsIgnoreCase(fallback.trim());
+        circuitBreaker = new CircuitBreaker(failureThreshold, openMillis);
+        Gauge.builder("gateway.datamask.inflight", inFlight, AtomicInteger::get)
+                .description("In-flight calls to the datamask service")
+                .register(meterRegistry);
+        Gauge.builder("gateway.datamask.circuit.open", circuitBreaker, cb -> cb.getState() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                .description("Whether the datamask circuit breaker is open or half-open")
+                .register(meterRegistry);
+        successCalls = calls("success");
+        failedCalls = calls("failure");
+        circuitOpenRejections = rejections("circuit_open");
+        inFlightRejections = rejections("max_in_flight");
+
+        balancer = new InstanceBalancer(dataId, serviceUrl, ejectFailures, ejectMillis);
+        Gauge.builder("gateway.datamask.instances", balancer, InstanceBalancer::availableCount)
+                .description("Datamask instances available for selection")
+                .register(meterRegistry);
         try {
-            ins = namingService.selectOneHealthyInstance(dataId, group);
+            balancer.update(namingService.selectInstances(dataId, group, true));
+            namingService.subscribe(dataId, group, balancer);
         } catch (Exception e) {
-            System.out.print(e.getStackTrace());
-            System.out.print("instance discovery error,在群组: '" + group + "'中无法获取实例: '" + dataId + "'");
+            log.error("instance discovery error,在群组: '{}'中无法订阅实例: '{}'", group, dataId, e);
         }
-        if (ins == null || !ins.isHealthy()) {
-            System.out.print("instance discovery error,在群组: '" + group + "'中无健康实例: '" + dataId + "'");
-        } else {
-            url = String.format("http://%s:%d%s", ins.getIp(), ins.getPort(), serviceUrl);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        try {
+            namingService.unsubscribe(dataId, group, balancer);
+        } catch (Exception e) {
+            log.warn("unsubscribe {} error", dataId, e);
         }
-        return url;
     }
 
-    public String execDatamaskByApiRule(ExecDatamaskByApiRuleRequest request) {
-        String url = getUrl();
-        if (StringUtils.isBlank(url)) {
-            return request.getValue();
+    private Counter calls(String outcome) {
+        return Counter.builder("gateway.datamask.calls")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private Counter rejections(String reason) {
+        return Counter.builder("gateway.datamask.rejections")
+                .description("Datamask calls rejected before reaching the service")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 获取 token 在某个API上的脱敏计划, 相同的规则 JSON 只解析编译一次
+     *
+     * @param apiDataMaskRules token + "_ApiDataMaskRules" 的内容
+     * @param apiId            API编号
+     */
+    public DataMaskPlan getPlan(String apiDataMaskRules, String apiId) {
+        if (apiDataMaskRules == null || apiId == null) {
+            return DataMaskPlan.EMPTY;
         }
-        List<Object> list = new ArrayList<>();
-        list.add(request);
-        RpcRequest req = RpcRequest.builder().method(rpcMethod).params(list).build();
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        try {
-            ResponseEntity<RpcResponse> ret = restTemplate.exchange(url, HttpMethod.POST, new HttpEntity<>(req, headers), RpcResponse.class);
-            return ret.getBody().getResult().toString();
-        } catch (Exception ex) {
-            System.out.print(ex.getStackTrace());
-            System.out.print("execDatamaskByApiRule error, message: " + ex.getMessage());
+        return plans.get(apiDataMaskRules, this::compile).getOrDefault(apiId, DataMaskPlan.EMPTY);
+    }
+
+    /**
+     * 按 apiId 分组, 将规则拆分为本地执行与远程执行两部分
+     */
+    private Map<String, DataMaskPlan> compile(String apiDataMaskRules) {
+        List<ApiRuleDto> apiRuleDtos = JSON.parseArray(apiDataMaskRules, ApiRuleDto.class);
+        Map<String, List<ApiRuleDto>> byApi = new HashMap<>();
+        if (apiRuleDtos != null) {
+            for (ApiRuleDto rule : apiRuleDtos) {
+                if (rule != null && rule.getApiId() != null) {
+                    byApi.computeIfAbsent(rule.getApiId(), k -> new ArrayList<>()).add(rule);
+                }
+            }
+        }
+        Map<String, DataMaskPlan> result = new HashMap<>(byApi.size() * 2);
+        byApi.forEach((apiId, rules) -> {
+            Map<String, DataMaskAlgorithm> localFields = new HashMap<>();
+            List<ApiRuleDto> remoteRules = new ArrayList<>();
+            for (ApiRuleDto rule : rules) {
+                DataMaskAlgorithm algorithm = localAlgorithms.get(rule.getRuleId());
+                if (algorithm != null && rule.getFieldName() != null) {
+                    localFields.put(rule.getFieldName().toLowerCase(Locale.ROOT), algorithm);
+                } else {
+                    remoteRules.add(rule);
+                }
+            }
+            result.put(apiId, new DataMaskPlan(localFields, remoteRules));
+        });
+        return result;
+    }
+
+    /**
+     * 在网关内对完整的 JSON 执行脱敏
+     */
+    public String maskLocal(String json, Map<String, DataMaskAlgorithm> fields) {
+        JsonMaskTransformer transformer = new JsonMaskTransformer(fields);
+        DataBuffer output = transformer.transform(bufferFactory.wrap(json.getBytes(StandardCharsets.UTF_8)), bufferFactory);
+        DataBuffer rest = transformer.finish(bufferFactory);
+        String masked = output.toString(StandardCharsets.UTF_8);
+        return rest == null ? masked : masked + rest.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 调用脱敏服务, 不阻塞调用线程。超时、出错、熔断打开或进行中的调用过多时按降级策略返回, 不会出错
+     */
+    public Mono<String> execDatamaskByApiRule(ExecDatamaskByApiRuleRequest request) {
+        //计数在订阅时进行, 保证与 doFinally 成对
+        return Mono.defer(() -> {
+            InstanceBalancer.Endpoint endpoint = balancer.choose();
+            if (endpoint == null) {
+                return Mono.just(fallback(request));
+            }
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                inFlight.decrementAndGet();
+                inFlightRejections.increment();
+                return Mono.just(fallback(request));
+            }
+            if (!circuitBreaker.tryAcquire()) {
+                inFlight.decrementAndGet();
+                circuitOpenRejections.increment();
+                return Mono.just(fallback(request));
+            }
+            List<Object> list = new ArrayList<>();
+            list.add(request);
+            RpcRequest req = RpcRequest.builder().method(rpcMethod).params(list).build();
+            String url = endpoint.getUrl();
+            long start = endpoint.start();
+            return datamaskWebClient.post()
+                    .uri(url)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(req)
+                    .retrieve()
+                    .bodyToMono(RpcResponse.class)
+                    .map(ret -> ret.getResult().toString())
+                    .switchIfEmpty(Mono.error(new IllegalStateException("empty datamask response")))
+                    .timeout(Duration.ofMillis(timeout))
+                    .doOnNext(x -> {
+                        endpoint.onSuccess(start);
+                        circuitBreaker.onSuccess();
+                        successCalls.increment();
+                    })
+                    .onErrorResume(ex -> {
+                        endpoint.onFailure();
+                        circuitBreaker.onFailure();
+                        failedCalls.increment();
+                        log.error("execDatamaskByApiRule error, url:{}, message:{}", url, ex.toString());
+                        return Mono.just(fallback(request));
+                    })
+                    .doFinally(signal -> {
+                        endpoint.finish();
+                        inFlight.decrementAndGet();
+                    });
+        });
+    }
+
+    private String fallback(ExecDatamaskByApiRuleRequest request) {
+        if (!fallbackMaskAll || request.getApiRules() == null) {
             return request.getValue();
         }
+        Map<String, DataMaskAlgorithm> fields = new HashMap<>();
+        for (ApiRuleDto rule : request.getApiRules()) {
+            if (rule != null && rule.getFieldName() != null) {
+                fields.put(rule.getFieldName().toLowerCase(Locale.ROOT), DataMaskAlgorithm.ALL);
+            }
+        }
+        return fields.isEmpty() ? request.getValue() : maskLocal(request.getValue(), fields);
     }
 }
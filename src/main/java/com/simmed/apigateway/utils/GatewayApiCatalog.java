@@ -0,0 +1,187 @@
+package com.simmed.apigateway.utils;
+
+import com.alibaba.fastjson.JSON;
+import com.simmed.apigateway.dto.GatewayApiDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 网关 API 目录本地索引
+ * <p>
+ * 定时从 Redis 拉取 SIMMED_GatewayApi_CheckList / SIMMED_GatewayApi_PermissionList,
+ * 内容变化时才重新解析, 按 (path, apiName) 建立哈希索引后整体替换, 请求线程只做 O(1) 查找
+ */
+@Slf4j
+@Component
+public class GatewayApiCatalog {
+
+    public static final String CACHE_REDIS_APIS = "SIMMED_GatewayApi_CheckList";
+    public static final String CACHE_REDIS_Permissions = "SIMMED_GatewayApi_PermissionList";
+
+    @Autowired
+    private RedisUtil redisUtil;
+    @Autowired
+    private PermissionSetUtil permissionSetUtil;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    @PostConstruct
+    public void init() {
+        refresh();
+    }
+
+    /**
+     * 定时刷新, 内容未变化时不重新解析
+     */
+    @Scheduled(initialDelayString = "${gateway.apiCatalog.refreshInterval:5000}", fixedDelayString = "${gateway.apiCatalog.refreshInterval:5000}")
+    public void refresh() {
+        try {
+            Object checkRaw = redisUtil.get(CACHE_REDIS_APIS);
+            Object permissionRaw = redisUtil.get(CACHE_REDIS_Permissions);
+            String checkStr = checkRaw == null ? null : checkRaw.toString();
+            String permissionStr = permissionRaw == null ? null : permissionRaw.toString();
+
+            Snapshot current = snapshot;
+            if (current.sameSource(checkStr, permissionStr)) {
+                return;
+            }
+            Map<String, GatewayApiDto> permissionIndex = buildIndex(permissionStr);
+            List<String> apiIds = new ArrayList<>(permissionIndex.size());
+            for (GatewayApiDto api : permissionIndex.values()) {
+                apiIds.add(api.getApiId());
+            }
+            permissionSetUtil.register(apiIds);
+            for (GatewayApiDto api : permissionIndex.values()) {
+                api.setPermissionId(permissionSetUtil.idOf(api.getApiId()));
+            }
+            Snapshot next = new Snapshot(current.version + 1, checkStr, permissionStr,
+                    buildIndex(checkStr), permissionIndex);
+            snapshot = next;
+            log.info("GatewayApiCatalog refreshed, version:{}, checkApis:{}, permissionApis:{}",
+                    next.version, next.checkIndex.size(), next.permissionIndex.size());
+        } catch (Exception e) {
+            log.error("GatewayApiCatalog refresh error, keep version:{}", snapshot.version, e);
+        }
+    }
+
+    /**
+     * 文档是否已初始化(SIMMED_GatewayApi_CheckList 已加载)
+     */
+    public boolean isLoaded() {
+        return snapshot.checkSource != null;
+    }
+
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    /**
+     * 查找需要登录校验的API
+     */
+    public GatewayApiDto findCheckApi(String path, String apiName) {
+        return snapshot.checkIndex.get(key(path, apiName));
+    }
+
+    /**
+     * 查找需要权限校验的API
+     */
+    public GatewayApiDto findPermissionApi(String path, String apiName) {
+        return snapshot.permissionIndex.get(key(path, apiName));
+    }
+
+    /**
+     * 查找配置了响应缓存(cacheSeconds > 0)或请求合并(coalesce = 1)的幂等API, 两份目录中任一份配置即可
+     */
+    public GatewayApiDto findIdempotentApi(String path, String apiName) {
+        Snapshot current = snapshot;
+        String key = key(path, apiName);
+        GatewayApiDto api = current.checkIndex.get(key);
+        if (api != null && isIdempotent(api)) {
+            return api;
+        }
+        api = current.permissionIndex.get(key);
+        return api != null && isIdempotent(api) ? api : null;
+    }
+
+    /**
+     * 需要登录校验的API中的前若干个, 供启动预热使用
+     */
+    public List<GatewayApiDto> sampleCheckApis(int limit) {
+        List<GatewayApiDto> samples = new ArrayList<>(Math.min(limit, snapshot.checkIndex.size()));
+        for (GatewayApiDto api : snapshot.checkIndex.values()) {
+            if (samples.size() >= limit) {
+                break;
+            }
+            samples.add(api);
+        }
+        return samples;
+    }
+
+    private static boolean isIdempotent(GatewayApiDto api) {
+        return (api.getCacheSeconds() != null && api.getCacheSeconds() > 0) || Integer.valueOf(1).equals(api.getCoalesce());
+    }
+
+    private static Map<String, GatewayApiDto> buildIndex(String content) {
+        if (content == null) {
+            return Collections.emptyMap();
+        }
+        List<GatewayApiDto> apis = JSON.parseArray(content, GatewayApiDto.class);
+        if (apis == null || apis.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, GatewayApiDto> index = new HashMap<>(apis.size() * 2);
+        for (GatewayApiDto api : apis) {
+            if (api == null || api.getPath() == null || api.getApiName() == null) {
+                continue;
+            }
+            // 与原先 findFirst 语义一致, 重复项以第一个为准
+            index.putIfAbsent(key(api.getPath(), api.getApiName()), api);
+        }
+        return Collections.unmodifiableMap(index);
+    }
+
+    static String key(String path, String apiName) {
+        return (path == null ? "" : path.toLowerCase(Locale.ROOT)) + '#'
+                + (apiName == null ? "" : apiName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 不可变快照, 整体替换保证请求线程看到的是同一版本的两份索引
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0, null, null, Collections.emptyMap(), Collections.emptyMap());
+
+        final long version;
+        final String checkSource;
+        final String permissionSource;
+        final Map<String, GatewayApiDto> checkIndex;
+        final Map<String, GatewayApiDto> permissionIndex;
+
+        Snapshot(long version, String checkSource, String permissionSource,
+                 Map<String, GatewayApiDto> checkIndex, Map<String, GatewayApiDto> permissionIndex) {
+            this.version = version;
+            this.checkSource = checkSource;
+            this.permissionSource = permissionSource;
+            this.checkIndex = checkIndex;
+            this.permissionIndex = permissionIndex;
+        }
+
+        boolean sameSource(String check, String permission) {
+            return equalsNullable(checkSource, check) && equalsNullable(permissionSource, permission);
+        }
+
+        private static boolean equalsNullable(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.simmed.apigateway.utils;
+
+import com.alibaba.fastjson.JSON;
+import com.simmed.apigateway.dto.ApiRuleDto;
+import com.simmed.apigateway.dto.CachedResponse;
+import com.simmed.apigateway.dto.GatewayApiDto;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.context.ApplicationListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 启动预热
+ * <p>
+ * 应用启动完成(ApplicationReadyEvent)后: 加载 API 目录与路由、建立 Redis 响应式连接、生成 fastjson 的序列化器,
+ * 在本进程内对合成响应执行网关内脱敏(合成请求不带登录 token, 不会走到响应脱敏), 再通过本机端口发送一批合成的 JSON-RPC 请求,
+ * 经过 RequestBodyFilter、AuthAndLoginFilter、ResponseBodyFilter 等过滤器, 由 WarmUpFilter 在转发上游之前返回合成的 gzip / br / 未压缩响应。
+ * 完成(或超时)之前健康状态为 {@link #WARMING_UP}: 该状态不在默认的状态顺序中, 不影响 /actuator/health 的整体状态(存活探针),
+ * 只有在健康组的 status.order 中排在 UP 之前并映射为 503 的就绪组(见 apigateway.yml.txt)才会在预热完成前返回未就绪
+ */
+@Slf4j
+@Component
+public class GatewayWarmUp implements HealthIndicator, ApplicationListener<ApplicationReadyEvent> {
+
+    public static final String WARM_UP_HEADER = "X-Gateway-WarmUp";
+    //合成响应的压缩方式
+    public static final String WARM_UP_ENCODING_HEADER = "X-Gateway-WarmUp-Encoding";
+    //不在 API 目录中的方法名, 请求按开放接口通过鉴权
+    private static final String WARM_UP_METHOD = "gateway.warmUp";
+    private static final List<String> ENCODINGS = Arrays.asList("gzip", "br", "identity");
+    public static final Status WARMING_UP = new Status("WARMING_UP", "gateway warm-up running");
+
+    @Value("${gateway.warmUp.enabled:true}")
+    private boolean enabled;
+    //合成请求总数与并发数
+    @Value("${gateway.warmUp.requests:300}")
+    private int requests;
+    @Value("${gateway.warmUp.concurrency:4}")
+    private int concurrency;
+    //超过该时间(毫秒)未完成也报告就绪
+    @Value("${gateway.warmUp.timeout:60000}")
+    private long timeout;
+    //合成响应的大小
+    @Value("${gateway.warmUp.responseSize:16384}")
+    private int responseSize;
+    //合成请求的路径, 逗号分隔; 为空时取 API 目录中的路径
+    @Value("${gateway.warmUp.paths:}")
+    private String paths;
+
+    @Autowired
+    private GatewayApiCatalog gatewayApiCatalog;
+    @Autowired
+    private RouteLocator routeLocator;
+    @Autowired
+    private ReactiveRedisUtil reactiveRedisUtil;
+    @Autowired
+    private GzipCodec gzipCodec;
+    @Autowired
+    private BrotliCodec brotliCodec;
+    @Autowired
+    private DataMaskUtil dataMaskUtil;
+
+    //只在本进程内可知, 用于识别本机发出的合成请求
+    private final String secret = UUID.randomUUID().toString();
+    private final Map<String, byte[]> responses = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+    private volatile Map<String, Object> details = new LinkedHashMap<>();
+
+    @Override
+    public Health health() {
+        if (!enabled || ready) {
+            return Health.up().withDetails(details).build();
+        }
+        return Health.status(WARMING_UP).withDetail("warmUp", "running").build();
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        if (!enabled || ready) {
+            return;
+        }
+        if (!(event.getApplicationContext() instanceof WebServerApplicationContext)) {
+            ready = true;
+            return;
+        }
+        int port = ((WebServerApplicationContext) event.getApplicationContext()).getWebServer().getPort();
+        long start = System.currentTimeMillis();
+        AtomicInteger sent = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        log.info("gateway warm-up started, port:{}", port);
+        Mono.when(preload(), connect(), prepareResponses())
+                .then(Mono.defer(() -> traffic(port, sent, failures)))
+                .timeout(Duration.ofMillis(timeout))
+                .doFinally(signal -> {
+                    Map<String, Object> result = new LinkedHashMap<>();
+                    result.put("requests", sent.get());
+                    result.put("failures", failures.get());
+                    result.put("durationMs", System.currentTimeMillis() - start);
+                    result.put("completed", signal.toString());
+                    details = result;
+                    ready = true;
+                    log.info("gateway warm-up finished, {}", result);
+                })
+                .subscribe(null, e -> log.error("gateway warm-up error, report ready anyway", e));
+    }
+
+    /**
+     * API 目录、路由, 以及 fastjson 首次解析/序列化各类型时生成的解析器
+     */
+    private Mono<Void> preload() {
+        Mono<Void> catalog = Mono.<Void>fromRunnable(() -> {
+            if (!gatewayApiCatalog.isLoaded()) {
+                gatewayApiCatalog.refresh();
+            }
+            JSON.parseArray("[{}]", GatewayApiDto.class);
+            JSON.parseArray("[{}]", ApiRuleDto.class);
+            JSON.toJSONString(JSON.parseObject("{}", CachedResponse.class));
+        }).subscribeOn(Schedulers.boundedElastic());
+        Mono<Void> routes = routeLocator.getRoutes().count()
+                .doOnNext(count -> log.info("gateway warm-up loaded routes:{}", count))
+                .then();
+        return Mono.when(catalog, routes)
+                .onErrorResume(e -> {
+                    log.warn("gateway warm-up preload error:{}", e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * 响应式 Redis 连接在第一次使用时才建立
+     */
+    private Mono<Void> connect() {
+        return reactiveRedisUtil.hasKey(GatewayApiCatalog.CACHE_REDIS_APIS)
+                .onErrorResume(e -> {
+                    log.warn("gateway warm-up redis error:{}", e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private Mono<Void> prepareResponses() {
+        StringBuilder result = new StringBuilder("{\"jsonrpc\":\"2.0\",\"id\":\"warmup\",\"result\":{\"items\":[");
+        for (int i = 0; result.length() < responseSize; i++) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append("{\"id\":").append(i).append(",\"name\":\"warm-up item ").append(i)
+                    .append("\",\"mobile\":\"138").append(String.format("%08d", i)).append("\"}");
+        }
+        String json = result.append("]}}").toString();
+        byte[] identity = json.getBytes(StandardCharsets.UTF_8);
+        Mono<Void> mask = Mono.<Void>fromRunnable(() -> mask(json)).subscribeOn(Schedulers.boundedElastic());
+        Mono<byte[]> br = brotliCodec.isAvailable()
+                ? brotliCodec.compress(identity, brotliCodec.parameters(null))
+                : Mono.empty();
+        return br.doOnNext(bytes -> responses.put("br", bytes))
+                .then(Mono.<Void>fromRunnable(() -> {
+                    responses.put("gzip", gzipCodec.encode(identity));
+                    responses.put("identity", identity);
+                }))
+                .and(mask);
+    }
+
+    /**
+     * 对合成响应中的 name、mobile 字段执行网关内脱敏
+     */
+    private void mask(String json) {
+        Map<String, DataMaskAlgorithm> fields = new HashMap<>();
+        fields.put("name", DataMaskAlgorithm.NAME);
+        fields.put("mobile", DataMaskAlgorithm.MOBILE);
+        try {
+            for (int i = 0; i < Math.max(1, requests); i++) {
+                dataMaskUtil.maskLocal(json, fields);
+            }
+        } catch (RuntimeException e) {
+            log.warn("gateway warm-up mask error:{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 依次轮换路径、上游压缩方式与客户端 Accept-Encoding; 每四个请求中有一个使用目录中需要登录的方法且不带 token, 走鉴权失败的分支
+     */
+    private Mono<Void> traffic(int port, AtomicInteger sent, AtomicInteger failures) {
+        List<String> targets = new ArrayList<>();
+        for (String path : StringUtils.split(paths, ',')) {
+            targets.add(path.trim());
+        }
+        List<GatewayApiDto> checkApis = gatewayApiCatalog.sampleCheckApis(10);
+        if (targets.isEmpty()) {
+            for (GatewayApiDto api : checkApis) {
+                if (!targets.contains(api.getPath())) {
+                    targets.add(api.getPath());
+                }
+            }
+        }
+        if (targets.isEmpty() || requests <= 0) {
+            log.info("gateway warm-up skipped synthetic traffic, no paths");
+            return Mono.empty();
+        }
+        WebClient client = WebClient.create("http://127.0.0.1:" + port);
+        return Flux.range(0, requests)
+                .flatMap(i -> {
+                    String path;
+                    String method;
+                    if (i % 4 == 3 && !checkApis.isEmpty()) {
+                        GatewayApiDto api = checkApis.get(i % checkApis.size());
+                        path = api.getPath();
+                        method = api.getApiName();
+                    } else {
+                        path = targets.get(i % targets.size());
+                        method = WARM_UP_METHOD;
+                    }
+                    String body = "{\"jsonrpc\":\"2.0\",\"id\":\"warmup-" + i + "\",\"method\":\"" + method + "\",\"params\":[]}";
+                    return client.post()
+                            .uri(path)
+                            .header(WARM_UP_HEADER, secret)
+                            .header(WARM_UP_ENCODING_HEADER, ENCODINGS.get(i % ENCODINGS.size()))
+                            .header(HttpHeaders.ACCEPT_ENCODING, ENCODINGS.get((i / ENCODINGS.size()) % ENCODINGS.size()))
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .bodyValue(body)
+                            .exchange()
+                            .flatMap(response -> response.releaseBody())
+                            .doOnSuccess(v -> sent.incrementAndGet())
+                            .onErrorResume(e -> {
+                                failures.incrementAndGet();
+                                log.debug("gateway warm-up request error, path:{}", path, e);
+                                return Mono.empty();
+                            });
+                }, Math.max(1, concurrency))
+                .then();
+    }
+
+    /**
+     * 是否为预热期间本机发出的合成请求
+     */
+    public boolean isWarmUpRequest(ServerHttpRequest request) {
+        if (ready || !secret.equals(request.getHeaders().getFirst(WARM_UP_HEADER))) {
+            return false;
+        }
+        InetSocketAddress remote = request.getRemoteAddress();
+        return remote != null && remote.getAddress() != null && remote.getAddress().isLoopbackAddress();
+    }
+
+    /**
+     * 合成的上游响应体, 压缩方式为 {@link #responseEncoding(String)}
+     */
+    public byte[] responseBody(String encoding) {
+        byte[] body = responses.get(responseEncoding(encoding));
+        return body == null ? new byte[0] : body;
+    }
+
+    /**
+     * 请求的压缩方式不可用(如 Brotli 未加载)时为未压缩
+     */
+    public String responseEncoding(String encoding) {
+        return encoding != null && responses.containsKey(encoding) ? encoding : "identity";
+    }
+}
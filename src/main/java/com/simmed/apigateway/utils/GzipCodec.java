@@ -0,0 +1,462 @@
+package com.simmed.apigateway.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.PooledDataBuffer;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * gzip 流式编解码
+ * <p>
+ * 直接在 DataBuffer 上逐段解压/压缩, 不缓冲整个响应体; Inflater/Deflater 的 native 状态按线程池化复用,
+ * 每个线程最多保留 POOL_SIZE_PER_THREAD 个, 一次编解码结束时归还到当前线程。压缩级别由 gateway.gzip.level 配置
+ */
+@Component
+public class GzipCodec {
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final int POOL_SIZE_PER_THREAD = 4;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final ThreadLocal<ArrayDeque<Inflater>> INFLATERS = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final ThreadLocal<ArrayDeque<Deflater>> DEFLATERS = ThreadLocal.withInitial(ArrayDeque::new);
+
+    //压缩级别 1(最快) - 9(最小), 默认 6 与 gzip 命令一致
+    @Value("${gateway.gzip.level:6}")
+    private int level;
+
+    /**
+     * 流式解压, 取得输入 buffer 的所有权
+     */
+    public Flux<DataBuffer> decode(Flux<? extends DataBuffer> input, DataBufferFactory bufferFactory) {
+        return Flux.defer(() -> {
+            Decoder decoder = new Decoder();
+            return input.concatMapIterable(buffer -> decoder.decode(buffer, bufferFactory))
+                    .concatWith(Mono.fromRunnable(decoder::complete))
+                    .doFinally(signal -> decoder.close());
+        }).doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release);
+    }
+
+    /**
+     * 流式压缩, 取得输入 buffer 的所有权
+     */
+    public Flux<DataBuffer> encode(Flux<? extends DataBuffer> input, DataBufferFactory bufferFactory) {
+        return Flux.defer(() -> {
+            Encoder encoder = new Encoder(level);
+            return input.concatMapIterable(buffer -> encoder.encode(buffer, bufferFactory))
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(encoder.finish(bufferFactory))))
+                    .doFinally(signal -> encoder.close());
+        }).doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release);
+    }
+
+    /**
+     * 解压完整的 gzip 数据
+     */
+    public byte[] decode(byte[] content) throws IOException {
+        Decoder decoder = new Decoder();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, content.length * 4));
+            decoder.process(content, 0, content.length, out::write);
+            decoder.checkFinished();
+            return out.toByteArray();
+        } finally {
+            decoder.close();
+        }
+    }
+
+    /**
+     * 压缩为完整的 gzip 数据
+     */
+    public byte[] encode(byte[] content) {
+        Encoder encoder = new Encoder(level);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, content.length / 4));
+            encoder.process(content, 0, content.length, out::write);
+            encoder.finish(out::write);
+            return out.toByteArray();
+        } finally {
+            encoder.close();
+        }
+    }
+
+    private static Inflater borrowInflater() {
+        Inflater inflater = INFLATERS.get().poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    private static void returnInflater(Inflater inflater) {
+        inflater.reset();
+        ArrayDeque<Inflater> pool = INFLATERS.get();
+        if (pool.size() < POOL_SIZE_PER_THREAD) {
+            pool.push(inflater);
+        } else {
+            inflater.end();
+        }
+    }
+
+    private static Deflater borrowDeflater(int level) {
+        Deflater deflater = DEFLATERS.get().poll();
+        if (deflater == null) {
+            return new Deflater(level, true);
+        }
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    private static void returnDeflater(Deflater deflater) {
+        deflater.reset();
+        ArrayDeque<Deflater> pool = DEFLATERS.get();
+        if (pool.size() < POOL_SIZE_PER_THREAD) {
+            pool.push(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Sink {
+        void write(byte[] bytes, int offset, int length);
+    }
+
+    /**
+     * 把 DataBuffer 复制到可复用的数组中并释放
+     */
+    private static byte[] drain(DataBuffer buffer, byte[] target) {
+        int count = buffer.readableByteCount();
+        byte[] array = target.length >= count ? target : new byte[count];
+        buffer.read(array, 0, count);
+        DataBufferUtils.release(buffer);
+        return array;
+    }
+
+    private static Sink collect(List<DataBuffer> result, DataBufferFactory bufferFactory) {
+        return (bytes, offset, length) -> result.add(bufferFactory.allocateBuffer(length).write(bytes, offset, length));
+    }
+
+    private enum DecodeState {
+        HEADER, EXTRA_LENGTH, EXTRA, NAME, COMMENT, HEADER_CRC, DATA, TRAILER, MEMBER_END, TRAILING
+    }
+
+    /**
+     * 单个响应的解压状态, 支持多个 gzip member 串联。
+     * 与 GZIPInputStream 一致, 完整的 member 之后不是 gzip 头(或头不完整)的多余数据忽略
+     */
+    private static final class Decoder {
+        private final CRC32 crc = new CRC32();
+        private final byte[] out = new byte[CHUNK_SIZE];
+        private final byte[] fixed = new byte[10];
+        private byte[] in = new byte[CHUNK_SIZE];
+        private Inflater inflater = borrowInflater();
+        private DecodeState state = DecodeState.HEADER;
+        private boolean started;
+        //已有完整的 member
+        private boolean memberFinished;
+        private int position;
+        private int flags;
+        private int remaining;
+        private long size;
+        private long trailerCrc;
+        private long trailerSize;
+
+        synchronized List<DataBuffer> decode(DataBuffer buffer, DataBufferFactory bufferFactory) {
+            int count = buffer.readableByteCount();
+            if (inflater == null) {
+                DataBufferUtils.release(buffer);
+                return Collections.emptyList();
+            }
+            in = drain(buffer, in);
+            List<DataBuffer> result = new ArrayList<>();
+            try {
+                process(in, 0, count, collect(result, bufferFactory));
+            } catch (IOException e) {
+                result.forEach(DataBufferUtils::release);
+                throw Exceptions.propagate(e);
+            }
+            return result;
+        }
+
+        void process(byte[] bytes, int offset, int length, Sink sink) throws IOException {
+            int end = offset + length;
+            int i = offset;
+            while (i < end) {
+                if (state == DecodeState.TRAILING) {
+                    return;
+                }
+                if (state == DecodeState.DATA) {
+                    i = inflate(bytes, i, end - i, sink);
+                    continue;
+                }
+                header(bytes[i++] & 0xff);
+            }
+        }
+
+        private void header(int b) throws ZipException {
+            switch (state) {
+                case MEMBER_END:
+                    //串联的下一个 member
+                    crc.reset();
+                    size = 0;
+                    position = 0;
+                    state = DecodeState.HEADER;
+                    header(b);
+                    return;
+                case HEADER:
+                    started = true;
+                    fixed[position++] = (byte) b;
+                    if (position == 3 && ((fixed[0] & 0xff) != 0x1f || (fixed[1] & 0xff) != 0x8b || fixed[2] != Deflater.DEFLATED)) {
+                        if (memberFinished) {
+                            state = DecodeState.TRAILING;
+                            return;
+                        }
+                        throw new ZipException("Not in GZIP format");
+                    }
+                    if (position == fixed.length) {
+                        flags = fixed[3] & 0xff;
+                        position = 0;
+                        nextHeaderField();
+                    }
+                    return;
+                case EXTRA_LENGTH:
+                    remaining |= b << (8 * position++);
+                    if (position == 2) {
+                        position = 0;
+                        state = remaining == 0 ? nextState() : DecodeState.EXTRA;
+                    }
+                    return;
+                case EXTRA:
+                    if (--remaining == 0) {
+                        nextHeaderField();
+                    }
+                    return;
+                case NAME:
+                case COMMENT:
+                    if (b == 0) {
+                        nextHeaderField();
+                    }
+                    return;
+                case HEADER_CRC:
+                    if (++position == 2) {
+                        position = 0;
+                        nextHeaderField();
+                    }
+                    return;
+                case TRAILER:
+                    if (position < 4) {
+                        trailerCrc |= (long) b << (8 * position);
+                    } else {
+                        trailerSize |= (long) b << (8 * (position - 4));
+                    }
+                    if (++position == 8) {
+                        if (trailerCrc != crc.getValue()) {
+                            throw new ZipException("Corrupt GZIP trailer");
+                        }
+                        if (trailerSize != (size & 0xffffffffL)) {
+                            throw new ZipException("Corrupt GZIP trailer");
+                        }
+                        state = DecodeState.MEMBER_END;
+                        memberFinished = true;
+                    }
+                    return;
+                default:
+                    throw new IllegalStateException(state.name());
+            }
+        }
+
+        private void nextHeaderField() {
+            state = nextState();
+            remaining = 0;
+        }
+
+        //按 FEXTRA, FNAME, FCOMMENT, FHCRC 顺序处理, 处理过的标志位清除
+        private DecodeState nextState() {
+            if ((flags & FEXTRA) != 0) {
+                flags &= ~FEXTRA;
+                return DecodeState.EXTRA_LENGTH;
+            }
+            if ((flags & FNAME) != 0) {
+                flags &= ~FNAME;
+                return DecodeState.NAME;
+            }
+            if ((flags & FCOMMENT) != 0) {
+                flags &= ~FCOMMENT;
+                return DecodeState.COMMENT;
+            }
+            if ((flags & FHCRC) != 0) {
+                flags &= ~FHCRC;
+                return DecodeState.HEADER_CRC;
+            }
+            return DecodeState.DATA;
+        }
+
+        /**
+         * @return 下一个未处理字节的位置
+         */
+        private int inflate(byte[] bytes, int offset, int length, Sink sink) throws ZipException {
+            inflater.setInput(bytes, offset, length);
+            try {
+                while (true) {
+                    int n = inflater.inflate(out);
+                    if (n > 0) {
+                        crc.update(out, 0, n);
+                        size += n;
+                        sink.write(out, 0, n);
+                    }
+                    if (inflater.finished()) {
+                        int next = offset + length - inflater.getRemaining();
+                        inflater.reset();
+                        state = DecodeState.TRAILER;
+                        position = 0;
+                        trailerCrc = 0;
+                        trailerSize = 0;
+                        return next;
+                    }
+                    if (n == 0) {
+                        if (inflater.needsDictionary()) {
+                            throw new ZipException("Unexpected GZIP preset dictionary");
+                        }
+                        if (inflater.needsInput()) {
+                            return offset + length;
+                        }
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+        }
+
+        synchronized void checkFinished() throws ZipException {
+            if (!started || state == DecodeState.MEMBER_END || state == DecodeState.TRAILING) {
+                return;
+            }
+            //完整 member 之后的头不完整时同样忽略
+            if (memberFinished && state != DecodeState.DATA && state != DecodeState.TRAILER) {
+                return;
+            }
+            throw new ZipException("Unexpected end of GZIP stream");
+        }
+
+        void complete() {
+            try {
+                checkFinished();
+            } catch (ZipException e) {
+                throw Exceptions.propagate(e);
+            }
+        }
+
+        synchronized void close() {
+            if (inflater != null) {
+                returnInflater(inflater);
+                inflater = null;
+            }
+        }
+    }
+
+    /**
+     * 单个响应的压缩状态
+     */
+    private static final class Encoder {
+        private final CRC32 crc = new CRC32();
+        private final byte[] out = new byte[CHUNK_SIZE];
+        private byte[] in = new byte[CHUNK_SIZE];
+        private Deflater deflater;
+        private boolean headerWritten;
+        private long size;
+
+        Encoder(int level) {
+            deflater = borrowDeflater(level);
+        }
+
+        synchronized List<DataBuffer> encode(DataBuffer buffer, DataBufferFactory bufferFactory) {
+            int count = buffer.readableByteCount();
+            if (deflater == null) {
+                DataBufferUtils.release(buffer);
+                return Collections.emptyList();
+            }
+            in = drain(buffer, in);
+            List<DataBuffer> result = new ArrayList<>();
+            process(in, 0, count, collect(result, bufferFactory));
+            return result;
+        }
+
+        synchronized List<DataBuffer> finish(DataBufferFactory bufferFactory) {
+            if (deflater == null) {
+                return Collections.emptyList();
+            }
+            List<DataBuffer> result = new ArrayList<>();
+            finish(collect(result, bufferFactory));
+            return result;
+        }
+
+        void process(byte[] bytes, int offset, int length, Sink sink) {
+            writeHeader(sink);
+            if (length == 0) {
+                return;
+            }
+            crc.update(bytes, offset, length);
+            size += length;
+            deflater.setInput(bytes, offset, length);
+            while (!deflater.needsInput()) {
+                int n = deflater.deflate(out, 0, out.length, Deflater.NO_FLUSH);
+                if (n > 0) {
+                    sink.write(out, 0, n);
+                }
+            }
+        }
+
+        void finish(Sink sink) {
+            writeHeader(sink);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(out);
+                if (n > 0) {
+                    sink.write(out, 0, n);
+                }
+            }
+            byte[] trailer = new byte[8];
+            writeInt(trailer, 0, crc.getValue());
+            writeInt(trailer, 4, size);
+            sink.write(trailer, 0, trailer.length);
+        }
+
+        private void writeHeader(Sink sink) {
+            if (!headerWritten) {
+                headerWritten = true;
+                sink.write(HEADER, 0, HEADER.length);
+            }
+        }
+
+        private static void writeInt(byte[] bytes, int offset, long value) {
+            for (int i = 0; i < 4; i++) {
+                bytes[offset + i] = (byte) (value >> (8 * i));
+            }
+        }
+
+        synchronized void close() {
+            if (deflater != null) {
+                returnDeflater(deflater);
+                deflater = null;
+            }
+        }
+    }
+}
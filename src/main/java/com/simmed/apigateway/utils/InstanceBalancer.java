@@ -0,0 +1,184 @@
+package com.simmed.apigateway.utils;
+
+import com.alibaba.nacos.api.naming.listener.Event;
+import com.alibaba.nacos.api.naming.listener.EventListener;
+import com.alibaba.nacos.api.naming.listener.NamingEvent;
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 服务实例本地列表与负载均衡
+ * <p>
+ * 实例列表由 Nacos subscribe 推送更新, 请求线程只读本地快照, 不访问注册中心。
+ * 选择时随机取两个实例, 按 EWMA 延迟 × (进行中请求数 + 1) 取较小者(power of two choices);
+ * 连续失败 ejectFailures 次的实例摘除 ejectMillis 毫秒, 全部被摘除时仍从全部实例中选择
+ */
+@Slf4j
+public class InstanceBalancer implements EventListener {
+
+    //EWMA 平滑系数
+    private static final double ALPHA = 0.2;
+    //尚无延迟样本的实例按 1ms 估算, 既能较快被选中, 也不会在首个响应前吸走全部流量
+    private static final double INITIAL_LATENCY_NANOS = 1_000_000;
+
+    private final String serviceName;
+    private final String path;
+    private final int ejectFailures;
+    private final long ejectMillis;
+    private volatile List<Endpoint> endpoints = Collections.emptyList();
+
+    /**
+     * @param path 拼接在 http://ip:port 之后的请求路径
+     */
+    public InstanceBalancer(String serviceName, String path, int ejectFailures, long ejectMillis) {
+        this.serviceName = serviceName;
+        this.path = path;
+        this.ejectFailures = Math.max(1, ejectFailures);
+        this.ejectMillis = ejectMillis;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        if (event instanceof NamingEvent) {
+            update(((NamingEvent) event).getInstances());
+        }
+    }
+
+    /**
+     * 替换实例列表, 保留仍存在的实例的统计数据
+     */
+    public synchronized void update(List<Instance> instances) {
+        Map<String, Endpoint> current = new HashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            current.put(endpoint.address, endpoint);
+        }
+        List<Endpoint> next = new ArrayList<>();
+        if (instances != null) {
+            for (Instance ins : instances) {
+                if (ins == null || !ins.isHealthy() || !ins.isEnabled()) {
+                    continue;
+                }
+                String address = ins.getIp() + ":" + ins.getPort();
+                Endpoint endpoint = current.get(address);
+                next.add(endpoint != null ? endpoint : new Endpoint(address, "http://" + address + path));
+            }
+        }
+        endpoints = Collections.unmodifiableList(next);
+        log.info("{} instances updated:{}", serviceName, next.size());
+    }
+
+    /**
+     * @return 选中的实例, 无可用实例时为 null
+     */
+    public Endpoint choose() {
+        List<Endpoint> list = endpoints;
+        int size = list.size();
+        if (size == 0) {
+            return null;
+        }
+        if (size == 1) {
+            return list.get(0);
+        }
+        long now = System.currentTimeMillis();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(size);
+        int j = random.nextInt(size - 1);
+        if (j >= i) {
+            j++;
+        }
+        Endpoint a = list.get(i);
+        Endpoint b = list.get(j);
+        boolean aAvailable = a.isAvailable(now);
+        boolean bAvailable = b.isAvailable(now);
+        if (aAvailable != bAvailable) {
+            return aAvailable ? a : b;
+        }
+        if (!aAvailable) {
+            //两个都被摘除, 尝试找一个可用的
+            for (Endpoint endpoint : list) {
+                if (endpoint.isAvailable(now)) {
+                    return endpoint;
+                }
+            }
+        }
+        return a.load() <= b.load() ? a : b;
+    }
+
+    public int availableCount() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isAvailable(now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public final class Endpoint {
+        private final String address;
+        private final String url;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile double ewmaNanos;
+        private volatile long ejectedUntil;
+
+        private Endpoint(String address, String url) {
+            this.address = address;
+            this.url = url;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * 开始一次调用
+         *
+         * @return 开始时间(纳秒), 传给 {@link #onSuccess(long)}
+         */
+        public long start() {
+            inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        /**
+         * 调用结束(成功、失败或取消都须调用)
+         */
+        public void finish() {
+            inFlight.decrementAndGet();
+        }
+
+        public void onSuccess(long startNanos) {
+            long elapsed = System.nanoTime() - startNanos;
+            double previous = ewmaNanos;
+            ewmaNanos = previous == 0 ? elapsed : previous + ALPHA * (elapsed - previous);
+            consecutiveFailures.set(0);
+        }
+
+        public void onFailure() {
+            if (consecutiveFailures.incrementAndGet() >= ejectFailures) {
+                consecutiveFailures.set(0);
+                ejectedUntil = System.currentTimeMillis() + ejectMillis;
+                log.warn("{} instance ejected for {}ms:{}", serviceName, ejectMillis, address);
+            }
+        }
+
+        boolean isAvailable(long now) {
+            return ejectedUntil <= now;
+        }
+
+        double load() {
+            double latency = ewmaNanos == 0 ? INITIAL_LATENCY_NANOS : ewmaNanos;
+            return latency * (inFlight.get() + 1);
+        }
+    }
+}
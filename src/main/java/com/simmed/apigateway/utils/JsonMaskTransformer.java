@@ -0,0 +1,382 @@
+package com.simmed.apigateway.utils;
+
+import com.alibaba.fastjson.JSON;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * JSON 响应流式脱敏
+ * <p>
+ * 按字节跟踪对象/数组嵌套与当前字段名, 任意层级中字段名(忽略大小写)命中规则的值在结束后整体替换:
+ * 字符串按算法遮盖; 数字、true/false 遮盖后输出为字符串; null 保持不变。命中规则的字段值为对象或数组时,
+ * 其中所有值都按该规则处理(内部字段自身有规则时以自身为准)。其余字节原样输出, 某段数据中没有需要替换的内容时
+ * 直接返回原 buffer。超长的待脱敏值整体替换为 ******, 转义不合法的值按原文遮盖, 都不会原样泄露。
+ * 非线程安全, 每个响应使用一个实例
+ */
+public final class JsonMaskTransformer {
+
+    private static final int MAX_DEPTH = 256;
+    private static final int MAX_KEY_LENGTH = 128;
+    private static final int MAX_VALUE_LENGTH = 8192;
+    private static final byte[] OVERSIZE_VALUE = "******".getBytes(StandardCharsets.UTF_8);
+
+    private final Map<String, DataMaskAlgorithm> fields;
+
+    //true 为对象, false 为数组
+    private final boolean[] objectStack = new boolean[MAX_DEPTH];
+    //数组所在的字段, 数组元素按此匹配
+    private final String[] arrayKeys = new String[MAX_DEPTH];
+    //容器所在字段命中的规则(或从外层继承), 容器内的值默认按此脱敏
+    private final DataMaskAlgorithm[] containerMasks = new DataMaskAlgorithm[MAX_DEPTH];
+    private int depth;
+    private boolean expectKey;
+    //下一个非空白字节是否为值的开始
+    private boolean expectValue = true;
+    private String currentKey;
+    //超出最大嵌套深度后不再处理
+    private boolean disabled;
+
+    private boolean inString;
+    private boolean escape;
+    private boolean readingKey;
+    private final byte[] key = new byte[MAX_KEY_LENGTH];
+    private int keyLength;
+    private boolean keyOverflow;
+
+    //正在读取待脱敏的值
+    private DataMaskAlgorithm capturing;
+    //待脱敏的值是数字、true/false 等非字符串字面量
+    private boolean capturingBare;
+    private byte[] value = new byte[64];
+    private int valueLength;
+    private boolean valueOverflow;
+    private boolean valueEscaped;
+
+    private byte[] out;
+    private int outLength;
+
+    /**
+     * @param fields 字段名(小写) -> 脱敏算法
+     */
+    public JsonMaskTransformer(Map<String, DataMaskAlgorithm> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * 处理一段响应, 取得 input 的所有权
+     *
+     * @return 输出数据; 无需替换时即 input 本身
+     */
+    public DataBuffer transform(DataBuffer input, DataBufferFactory bufferFactory) {
+        DataBuffer output = null;
+        try {
+            output = doTransform(input, bufferFactory);
+            return output;
+        } finally {
+            //返回新 buffer 或处理出错时释放输入
+            if (output != input) {
+                DataBufferUtils.release(input);
+            }
+        }
+    }
+
+    private DataBuffer doTransform(DataBuffer input, DataBufferFactory bufferFactory) {
+        int start = input.readPosition();
+        int end = input.writePosition();
+        //本段开始时是否有跨段的待脱敏值, 有则本段输出必然与输入不同
+        boolean touched = capturing != null;
+        int copyFrom = start;
+        outLength = 0;
+        for (int i = start; i < end && !disabled; i++) {
+            byte b = input.getByte(i);
+            if (capturing != null) {
+                if (!capturingBare) {
+                    if (captureValue(b)) {
+                        //值结束: 输出替换后的值与闭合引号
+                        writeMasked();
+                        append((byte) '"');
+                        copyFrom = i + 1;
+                    }
+                    continue;
+                }
+                if (!isBareEnd(b)) {
+                    captureBare(b);
+                    continue;
+                }
+                //字面量结束: 输出替换后的字符串, 当前字节按结构继续处理
+                append((byte) '"');
+                writeMasked();
+                append((byte) '"');
+                copyFrom = i;
+            }
+            if (inString) {
+                readString(b);
+                continue;
+            }
+            switch (b) {
+                case '"':
+                    inString = true;
+                    escape = false;
+                    if (depth > 0 && objectStack[depth - 1] && expectKey) {
+                        readingKey = true;
+                        keyLength = 0;
+                        keyOverflow = false;
+                    } else {
+                        expectValue = false;
+                        DataMaskAlgorithm algorithm = lookup(valueKey());
+                        if (algorithm != null) {
+                            //输出到开引号为止, 之后的内容先暂存
+                            copy(input, copyFrom, i + 1);
+                            touched = true;
+                            inString = false;
+                            startCapture(algorithm, false);
+                        }
+                    }
+                    break;
+                case '{':
+                case '[':
+                    if (depth == MAX_DEPTH) {
+                        disabled = true;
+                        break;
+                    }
+                    containerMasks[depth] = lookup(valueKey());
+                    objectStack[depth] = b == '{';
+                    arrayKeys[depth] = b == '[' ? valueKey() : null;
+                    depth++;
+                    expectKey = b == '{';
+                    expectValue = b == '[';
+                    break;
+                case '}':
+                case ']':
+                    if (depth > 0) {
+                        depth--;
+                    }
+                    expectKey = false;
+                    expectValue = false;
+                    break;
+                case ',':
+                    expectKey = depth > 0 && objectStack[depth - 1];
+                    expectValue = depth > 0 && !objectStack[depth - 1];
+                    break;
+                case ':':
+                    expectKey = false;
+                    expectValue = true;
+                    break;
+                default:
+                    if (!expectValue || isWhitespace(b)) {
+                        break;
+                    }
+                    expectValue = false;
+                    //null 不需要遮盖
+                    DataMaskAlgorithm algorithm = b == 'n' ? null : lookup(valueKey());
+                    if (algorithm != null) {
+                        copy(input, copyFrom, i);
+                        touched = true;
+                        startCapture(algorithm, true);
+                        captureBare(b);
+                    }
+                    break;
+            }
+        }
+        if (!touched) {
+            return input;
+        }
+        if (capturing == null) {
+            copy(input, copyFrom, end);
+        }
+        return bufferFactory.wrap(Arrays.copyOf(out, outLength));
+    }
+
+    /**
+     * 响应结束, 输出被截断时仍在暂存的值(已遮盖)
+     *
+     * @return 剩余输出, 无则为 null
+     */
+    public DataBuffer finish(DataBufferFactory bufferFactory) {
+        if (capturing == null) {
+            return null;
+        }
+        outLength = 0;
+        boolean bare = capturingBare;
+        valueOverflow = true;
+        if (bare) {
+            append((byte) '"');
+        }
+        writeMasked();
+        if (bare) {
+            append((byte) '"');
+        }
+        return bufferFactory.wrap(Arrays.copyOf(out, outLength));
+    }
+
+    private String valueKey() {
+        if (depth == 0) {
+            return null;
+        }
+        return objectStack[depth - 1] ? currentKey : arrayKeys[depth - 1];
+    }
+
+    /**
+     * 字段自身的规则, 没有时沿用所在容器的规则
+     */
+    private DataMaskAlgorithm lookup(String fieldName) {
+        DataMaskAlgorithm algorithm = fieldName == null ? null : fields.get(fieldName);
+        if (algorithm == null && depth > 0) {
+            algorithm = containerMasks[depth - 1];
+        }
+        return algorithm;
+    }
+
+    private void readString(byte b) {
+        if (escape) {
+            escape = false;
+            appendKey(b);
+            return;
+        }
+        if (b == '\\') {
+            escape = true;
+            appendKey(b);
+            return;
+        }
+        if (b == '"') {
+            inString = false;
+            if (readingKey) {
+                readingKey = false;
+                currentKey = keyOverflow ? null : decodeKey();
+            }
+            return;
+        }
+        appendKey(b);
+    }
+
+    private void appendKey(byte b) {
+        if (!readingKey) {
+            return;
+        }
+        if (keyLength < key.length) {
+            key[keyLength++] = b;
+        } else {
+            keyOverflow = true;
+        }
+    }
+
+    private String decodeKey() {
+        String name = new String(key, 0, keyLength, StandardCharsets.UTF_8);
+        if (name.indexOf('\\') >= 0) {
+            //转义不合法时按原文匹配
+            String decoded = unescape(name);
+            name = decoded == null ? name : decoded;
+        }
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private void startCapture(DataMaskAlgorithm algorithm, boolean bare) {
+        capturing = algorithm;
+        capturingBare = bare;
+        valueLength = 0;
+        valueOverflow = false;
+        valueEscaped = false;
+    }
+
+    private static boolean isBareEnd(byte b) {
+        return b == ',' || b == '}' || b == ']' || isWhitespace(b);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private void captureBare(byte b) {
+        if (valueLength == MAX_VALUE_LENGTH) {
+            valueOverflow = true;
+        } else if (!valueOverflow) {
+            if (valueLength == value.length) {
+                value = Arrays.copyOf(value, Math.min(value.length * 2, MAX_VALUE_LENGTH));
+            }
+            value[valueLength++] = b;
+        }
+    }
+
+    /**
+     * @return 值是否结束
+     */
+    private boolean captureValue(byte b) {
+        if (escape) {
+            escape = false;
+        } else if (b == '\\') {
+            escape = true;
+            valueEscaped = true;
+        } else if (b == '"') {
+            return true;
+        }
+        captureBare(b);
+        return false;
+    }
+
+    private void writeMasked() {
+        DataMaskAlgorithm algorithm = capturing;
+        capturing = null;
+        capturingBare = false;
+        escape = false;
+        if (valueOverflow) {
+            append(OVERSIZE_VALUE, 0, OVERSIZE_VALUE.length);
+            return;
+        }
+        String raw = new String(value, 0, valueLength, StandardCharsets.UTF_8);
+        if (valueEscaped) {
+            //转义不合法时按原文遮盖
+            String decoded = unescape(raw);
+            raw = decoded == null ? raw : decoded;
+        }
+        String masked = algorithm.mask(raw);
+        //重新转义并去掉首尾引号
+        String escaped = JSON.toJSONString(masked);
+        byte[] bytes = escaped.substring(1, escaped.length() - 1).getBytes(StandardCharsets.UTF_8);
+        append(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 还原 JSON 字符串中的转义
+     *
+     * @return 转义不合法时为 null
+     */
+    private static String unescape(String raw) {
+        try {
+            return (String) JSON.parse("\"" + raw + "\"");
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void copy(DataBuffer input, int from, int to) {
+        ensureCapacity(to - from);
+        for (int i = from; i < to; i++) {
+            out[outLength++] = input.getByte(i);
+        }
+    }
+
+    private void append(byte b) {
+        ensureCapacity(1);
+        out[outLength++] = b;
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, out, outLength, length);
+        outLength += length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (out == null) {
+            out = new byte[Math.max(256, extra)];
+        } else if (outLength + extra > out.length) {
+            out = Arrays.copyOf(out, Math.max(out.length * 2, outLength + extra));
+        }
+    }
+}
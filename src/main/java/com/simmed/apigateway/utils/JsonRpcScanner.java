@@ -0,0 +1,331 @@
+package com.simmed.apigateway.utils;
+
+import com.alibaba.fastjson.JSON;
+import com.simmed.apigateway.dto.RpcRequestInfo;
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSON-RPC 请求体流式扫描
+ * <p>
+ * 按字节逐段读取, 只识别顶层对象的 "method" 与 "id", 其余值(包括 params)只做括号与字符串配对跳过,
+ * 两者都找到或顶层对象结束后停止。不修改 DataBuffer 的读写位置, 可直接挂在请求体上。
+ * 同时记录 id 值的原始 JSON 文本与字节区间、顶层 "error" 是否非 null, 供响应缓存改写 id 与跳过错误响应。
+ * 非线程安全, 每个请求(或响应)使用一个实例
+ */
+public final class JsonRpcScanner {
+
+    //method / id 值的最大长度, 超过则视为未找到
+    private static final int MAX_VALUE_LENGTH = 512;
+    private static final byte[] METHOD = "method".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ID = "id".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR = "error".getBytes(StandardCharsets.US_ASCII);
+
+    private enum Mode {
+        START, EXPECT_KEY, KEY, COLON, VALUE, STRING_VALUE, BARE_VALUE, SKIP, DONE
+    }
+
+    private Mode mode = Mode.START;
+    private final byte[] token = new byte[MAX_VALUE_LENGTH];
+    private int tokenLength;
+    private boolean overflow;
+    private boolean hasEscape;
+    private boolean escape;
+    private boolean inString;
+    private int skipDepth;
+    //当前 key: 0 其他, 1 method, 2 id, 3 error
+    private int currentKey;
+    //已扫描的字节数, 即当前字节的位置
+    private long position;
+    private long valueStart;
+
+    private String method;
+    private String id;
+    private boolean idFound;
+    private String rawId;
+    private long idStart = -1;
+    private long idEnd = -1;
+    private boolean error;
+
+    /**
+     * 扫描一段请求体, 不改变 buffer 的读位置
+     *
+     * @return 是否已扫描完毕, 之后的数据无需再传入
+     */
+    public boolean feed(DataBuffer buffer) {
+        int end = buffer.writePosition();
+        for (int i = buffer.readPosition(); i < end && mode != Mode.DONE; i++) {
+            next(buffer.getByte(i));
+            position++;
+        }
+        return isDone();
+    }
+
+    /**
+     * 扫描一段请求体
+     *
+     * @return 是否已扫描完毕, 之后的数据无需再传入
+     */
+    public boolean feed(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end && mode != Mode.DONE; i++) {
+            next(bytes[i]);
+            position++;
+        }
+        return isDone();
+    }
+
+    public boolean isDone() {
+        return mode == Mode.DONE;
+    }
+
+    public RpcRequestInfo result() {
+        return new RpcRequestInfo(id, method, rawId);
+    }
+
+    /**
+     * id 值的原始 JSON 文本(字符串含引号), 没有 id 或 id 为对象、数组时为 null
+     */
+    public String getRawId() {
+        return rawId;
+    }
+
+    /**
+     * id 值在已扫描数据中的起始位置(含), 没有时为 -1
+     */
+    public long getIdStart() {
+        return idStart;
+    }
+
+    /**
+     * id 值在已扫描数据中的结束位置(不含), 没有时为 -1
+     */
+    public long getIdEnd() {
+        return idEnd;
+    }
+
+    /**
+     * 顶层 "error" 是否存在且不为 null
+     */
+    public boolean hasError() {
+        return error;
+    }
+
+    private void next(byte b) {
+        switch (mode) {
+            case START:
+                if (b == '{') {
+                    mode = Mode.EXPECT_KEY;
+                } else if (!isWhitespace(b)) {
+                    //不是 JSON 对象(数组、表单等)
+                    mode = Mode.DONE;
+                }
+                break;
+            case EXPECT_KEY:
+                if (b == '"') {
+                    startToken();
+                    mode = Mode.KEY;
+                } else if (b == '}') {
+                    mode = Mode.DONE;
+                }
+                break;
+            case KEY:
+                if (readString(b)) {
+                    currentKey = overflow || hasEscape ? 0 : tokenEquals(METHOD) ? 1 : tokenEquals(ID) ? 2 : tokenEquals(ERROR) ? 3 : 0;
+                    mode = Mode.COLON;
+                }
+                break;
+            case COLON:
+                if (b == ':') {
+                    mode = Mode.VALUE;
+                }
+                break;
+            case VALUE:
+                if (isWhitespace(b)) {
+                    break;
+                }
+                if (currentKey == 3) {
+                    //error 只关心是否为 null
+                    error = b != 'n';
+                    skipFrom(b);
+                } else if (currentKey == 0 || b == '{' || b == '[') {
+                    skipFrom(b);
+                } else if (b == '"') {
+                    startToken();
+                    valueStart = position;
+                    mode = Mode.STRING_VALUE;
+                } else {
+                    startToken();
+                    append(b);
+                    valueStart = position;
+                    mode = Mode.BARE_VALUE;
+                }
+                break;
+            case STRING_VALUE:
+                if (readString(b)) {
+                    markId(overflow ? null : '"' + new String(token, 0, tokenLength, StandardCharsets.UTF_8) + '"', position + 1);
+                    assign(overflow ? null : tokenString());
+                    if (mode != Mode.DONE) {
+                        mode = Mode.SKIP;
+                        skipDepth = 0;
+                    }
+                }
+                break;
+            case BARE_VALUE:
+                if (b == ',' || b == '}' || isWhitespace(b)) {
+                    String value = overflow ? null : tokenString();
+                    markId(value, position);
+                    assign("null".equals(value) ? null : value);
+                    if (mode != Mode.DONE) {
+                        mode = b == ',' ? Mode.EXPECT_KEY : b == '}' ? Mode.DONE : Mode.SKIP;
+                        skipDepth = 0;
+                    }
+                } else {
+                    append(b);
+                }
+                break;
+            case SKIP:
+                skip(b);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void skipFrom(byte b) {
+        mode = Mode.SKIP;
+        skipDepth = 0;
+        inString = false;
+        escape = false;
+        skip(b);
+    }
+
+    /**
+     * 跳过当前值, 直到顶层的 ',' 或 '}'
+     */
+    private void skip(byte b) {
+        if (inString) {
+            if (escape) {
+                escape = false;
+            } else if (b == '\\') {
+                escape = true;
+            } else if (b == '"') {
+                inString = false;
+            }
+            return;
+        }
+        switch (b) {
+            case '"':
+                inString = true;
+                break;
+            case '{':
+            case '[':
+                skipDepth++;
+                break;
+            case '}':
+            case ']':
+                if (skipDepth == 0) {
+                    mode = Mode.DONE;
+                } else {
+                    skipDepth--;
+                }
+                break;
+            case ',':
+                if (skipDepth == 0) {
+                    mode = Mode.EXPECT_KEY;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 读取字符串内容到 token
+     *
+     * @return 字符串是否结束
+     */
+    private boolean readString(byte b) {
+        if (escape) {
+            escape = false;
+            append(b);
+            return false;
+        }
+        if (b == '\\') {
+            escape = true;
+            hasEscape = true;
+            append(b);
+            return false;
+        }
+        if (b == '"') {
+            return true;
+        }
+        append(b);
+        return false;
+    }
+
+    private void assign(String value) {
+        if (currentKey == 1) {
+            method = value;
+        } else if (currentKey == 2) {
+            id = value;
+            idFound = true;
+        }
+        if (method != null && idFound) {
+            mode = Mode.DONE;
+        }
+    }
+
+    private void markId(String raw, long end) {
+        if (currentKey == 2 && raw != null) {
+            rawId = raw;
+            idStart = valueStart;
+            idEnd = end;
+        }
+    }
+
+    private void startToken() {
+        tokenLength = 0;
+        overflow = false;
+        hasEscape = false;
+        escape = false;
+    }
+
+    private void append(byte b) {
+        if (tokenLength < token.length) {
+            token[tokenLength++] = b;
+        } else {
+            overflow = true;
+        }
+    }
+
+    private boolean tokenEquals(byte[] expected) {
+        if (tokenLength != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < tokenLength; i++) {
+            if (token[i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String tokenString() {
+        String value = new String(token, 0, tokenLength, StandardCharsets.UTF_8);
+        if (hasEscape) {
+            //含转义字符时交给 fastjson 还原, 极少出现; 转义不合法时视为未找到
+            try {
+                value = (String) JSON.parse("\"" + value + "\"");
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
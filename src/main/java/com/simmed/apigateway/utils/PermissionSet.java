@@ -0,0 +1,42 @@
+package com.simmed.apigateway.utils;
+
+import java.util.BitSet;
+
+/**
+ * 不可变的权限集合, 以 {@link PermissionSetUtil} 分配的 API 编号为下标的位图
+ * <p>
+ * 相同权限(同一角色)的 token 共享同一实例, contains 为常数时间且不分配内存
+ */
+public final class PermissionSet {
+
+    private final BitSet bits;
+    //建立时已分配的编号数, 不小于它的编号是之后登记的, 不在本集合的判断范围内
+    private final int limit;
+
+    PermissionSet(BitSet bits, int limit) {
+        this.bits = bits;
+        this.limit = limit;
+    }
+
+    /**
+     * @param permissionId {@link PermissionSetUtil#idOf(String)} 返回的编号, 负数表示未知API
+     */
+    public boolean contains(int permissionId) {
+        return permissionId >= 0 && bits.get(permissionId);
+    }
+
+    /**
+     * 编号是否在建立本集合时已经分配, 否则应重新获取权限集合
+     */
+    public boolean covers(int permissionId) {
+        return permissionId < limit;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    public int size() {
+        return bits.cardinality();
+    }
+}
@@ -0,0 +1,105 @@
+package com.simmed.apigateway.utils;
+
+import com.alibaba.fastjson.JSON;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 权限集合构建
+ * <p>
+ * 只为 API 目录中的 apiId(忽略大小写)分配连续编号, 编号不回收; token 的权限 JSON 转换为位图, 目录中没有的 apiId 不可能匹配, 直接忽略,
+ * 因此编号空间只随目录中出现过的 API 增长。相同 JSON 只解析一次, 内容相同的位图全局共享一个 {@link PermissionSet}。
+ * 目录新增 API 后, 之前建立的权限集合不包含新编号, 再次获取时重新解析
+ */
+@Component
+public class PermissionSetUtil {
+
+    @Value("${gateway.permissionSet.maximumSize:10000}")
+    private long maximumSize;
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    //权限 JSON -> 权限集合
+    private Cache<String, PermissionSet> parsed;
+    //位图内容 -> 共享实例, 无 token 引用后自动回收
+    private Cache<BitSet, PermissionSet> canonical;
+
+    @PostConstruct
+    public void init() {
+        parsed = Caffeine.newBuilder().maximumSize(maximumSize).build();
+        canonical = Caffeine.newBuilder().weakValues().build();
+    }
+
+    /**
+     * 为 API 目录中的 apiId 分配编号, 由 {@link GatewayApiCatalog} 在目录变化时调用
+     */
+    public void register(Collection<String> apiIds) {
+        for (String apiId : apiIds) {
+            if (apiId != null) {
+                ids.computeIfAbsent(apiId.toLowerCase(Locale.ROOT), k -> nextId.getAndIncrement());
+            }
+        }
+    }
+
+    /**
+     * 获取 apiId 的编号
+     *
+     * @param apiId API编号
+     * @return 编号, apiId 为 null 或未登记时返回 -1
+     */
+    public int idOf(String apiId) {
+        if (apiId == null) {
+            return -1;
+        }
+        Integer id = ids.get(apiId.toLowerCase(Locale.ROOT));
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * 将 token + "_PermissionApis" 中的 JSON 数组转换为权限集合
+     *
+     * @param permissionApis JSON 数组
+     * @return 权限集合, 参数为 null 时返回 null
+     */
+    public PermissionSet of(String permissionApis) {
+        if (permissionApis == null) {
+            return null;
+        }
+        PermissionSet set = parsed.get(permissionApis, this::build);
+        if (set.limit() < nextId.get()) {
+            //建立之后目录新增了 API
+            set = build(permissionApis);
+            parsed.put(permissionApis, set);
+        }
+        return set;
+    }
+
+    private PermissionSet build(String permissionApis) {
+        //先取上限, 解析期间新登记的编号视为未覆盖
+        int limit = nextId.get();
+        List<String> perList = JSON.parseArray(permissionApis, String.class);
+        BitSet bits = new BitSet();
+        if (perList != null) {
+            for (String apiId : perList) {
+                int id = idOf(apiId);
+                if (id >= 0 && id < limit) {
+                    bits.set(id);
+                }
+            }
+        }
+        return canonical.asMap().compute(bits, (key, shared) ->
+                shared != null && shared.limit() >= limit ? shared : new PermissionSet(key, limit));
+    }
+}
@@ -0,0 +1,357 @@
+package com.simmed.apigateway.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按 token、appId、apiId 的令牌桶限流
+ * <p>
+ * 请求线程只在本地判断: 每个桶持有本实例在当前同步周期内可用的许可数(lease), 已用数用 LongAdder 分段计数, 无锁。
+ * 每隔 syncInterval 毫秒, 把各桶的已用数通过 Lua 脚本原子地结算到 Redis 中的全局令牌桶, 并按近期用量申请下一周期的许可;
+ * 全局配额的误差不超过各实例一个周期的许可数。Redis 关闭或不可用时, 各实例按本地令牌桶单独限流。
+ * 长时间未使用的桶被移除时, 未用完的许可退回全局令牌桶; 许可已领完的桶只在有请求被拒绝后才再次同步。
+ * appId 维度只对 gateway.rateLimit.app.ids 中登记的应用生效, 未登记的 appId 不创建桶
+ */
+@Slf4j
+@Component
+public class RateLimiter {
+
+    public static final String CACHE_KEY_PREFIX = "SIMMED_Gateway_RateLimit:";
+    public static final String TOKEN = "token";
+    public static final String APP = "app";
+    public static final String API = "api";
+
+    /**
+     * 全局令牌桶: 按时间补充令牌(不超过 burst), 退回上一周期未用的许可(为负时扣除超用部分), 再发放本周期的许可
+     */
+    private static final RedisScript<Long> LEASE_SCRIPT = RedisScript.of(
+            "local rate = tonumber(ARGV[1])\n" +
+            "local burst = tonumber(ARGV[2])\n" +
+            "local now = tonumber(ARGV[3])\n" +
+            "local refund = tonumber(ARGV[4])\n" +
+            "local requested = tonumber(ARGV[5])\n" +
+            "local state = redis.call('HMGET', KEYS[1], 'tokens', 'ts')\n" +
+            "local tokens = tonumber(state[1])\n" +
+            "local ts = tonumber(state[2])\n" +
+            "if tokens == nil or ts == nil then\n" +
+            "  tokens = burst\n" +
+            "  ts = now\n" +
+            "end\n" +
+            "if now > ts then\n" +
+            "  tokens = math.min(burst, tokens + (now - ts) * rate / 1000)\n" +
+            "  ts = now\n" +
+            "end\n" +
+            "tokens = math.min(burst, tokens + refund)\n" +
+            "local grant = math.max(0, math.min(math.floor(tokens), requested))\n" +
+            "tokens = tokens - grant\n" +
+            "redis.call('HMSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(ts))\n" +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[6])\n" +
+            "return grant\n", Long.class);
+
+    @Value("${gateway.rateLimit.enabled:true}")
+    private boolean enabled;
+    @Value("${gateway.rateLimit.syncInterval:1000}")
+    private long syncInterval;
+    @Value("${gateway.rateLimit.redis.enabled:true}")
+    private boolean redisEnabled;
+    //本地保留的桶数上限, 长时间未使用的桶被移除
+    @Value("${gateway.rateLimit.maximumSize:100000}")
+    private long maximumSize;
+    //每秒许可数, 0 表示不限制; burst 为 0 时取 rate
+    @Value("${gateway.rateLimit.token.rate:0}")
+    private double tokenRate;
+    @Value("${gateway.rateLimit.token.burst:0}")
+    private long tokenBurst;
+    @Value("${gateway.rateLimit.app.rate:0}")
+    private double appRate;
+    @Value("${gateway.rateLimit.app.burst:0}")
+    private long appBurst;
+    //登记的 appId, 逗号分隔; 为空时不按 appId 限流
+    @Value("${gateway.rateLimit.app.ids:}")
+    private String appIds;
+    @Value("${gateway.rateLimit.api.rate:0}")
+    private double apiRate;
+    @Value("${gateway.rateLimit.api.burst:0}")
+    private long apiBurst;
+
+    @Autowired
+    private ReactiveRedisUtil reactiveRedisUtil;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Limit tokenLimit;
+    private Limit appLimit;
+    private Limit apiLimit;
+    private Set<String> appIdSet = Collections.emptySet();
+    private Cache<String, Bucket> buckets;
+    private final AtomicBoolean syncing = new AtomicBoolean();
+    private Timer syncTimer;
+
+    @PostConstruct
+    public void init() {
+        tokenLimit = Limit.of(TOKEN, tokenRate, tokenBurst);
+        Set<String> ids = new HashSet<>();
+        for (String id : StringUtils.split(appIds, ',')) {
+            if (StringUtils.isNotBlank(id)) {
+                ids.add(id.trim());
+            }
+        }
+        appIdSet = ids;
+        appLimit = ids.isEmpty() ? null : Limit.of(APP, appRate, appBurst);
+        if (appLimit == null && appRate > 0) {
+            log.warn("gateway.rateLimit.app.ids is empty, appId rate limit disabled");
+        }
+        apiLimit = Limit.of(API, apiRate, apiBurst);
+        buckets = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(Math.max(60_000, syncInterval * 10), TimeUnit.MILLISECONDS)
+                .removalListener((String key, Bucket bucket, RemovalCause cause) -> {
+                    if (bucket != null && cause.wasEvicted()) {
+                        returnLease(bucket);
+                    }
+                })
+                .build();
+        Gauge.builder("gateway.ratelimit.buckets", buckets, Cache::estimatedSize)
+                .description("Rate limit buckets held by this instance")
+                .register(meterRegistry);
+        syncTimer = Timer.builder("gateway.ratelimit.sync")
+                .description("Time to settle local rate limit usage with the global budget")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled && (tokenLimit != null || appLimit != null || apiLimit != null);
+    }
+
+    /**
+     * 开启 appId 限流时, 请求必须携带登记过的 appId
+     */
+    public boolean isAcceptedApp(String appId) {
+        return appLimit == null || (appId != null && appIdSet.contains(appId));
+    }
+
+    /**
+     * 依次占用 token、appId、apiId 维度的许可, 值为空或该维度未配置时跳过
+     *
+     * @param token 已通过登录校验的 token
+     * @param appId 已通过 {@link #isAcceptedApp(String)} 检查的 appId
+     * @return 被拒绝的维度, 全部通过时为 null
+     */
+    public String tryAcquire(String token, String appId, String apiId) {
+        Bucket tokenBucket = bucket(tokenLimit, token);
+        if (tokenBucket != null && !tokenBucket.tryAcquire()) {
+            return reject(TOKEN);
+        }
+        Bucket appBucket = bucket(appLimit, appId);
+        if (appBucket != null && !appBucket.tryAcquire()) {
+            //已占用的许可退回
+            release(tokenBucket);
+            return reject(APP);
+        }
+        Bucket apiBucket = bucket(apiLimit, apiId);
+        if (apiBucket != null && !apiBucket.tryAcquire()) {
+            release(tokenBucket);
+            release(appBucket);
+            return reject(API);
+        }
+        return null;
+    }
+
+    private Bucket bucket(Limit limit, String id) {
+        if (limit == null || StringUtils.isBlank(id) || (limit == appLimit && !appIdSet.contains(id))) {
+            return null;
+        }
+        return buckets.get(limit.dimension + ':' + id, key -> new Bucket(key, limit, initialLease(limit)));
+    }
+
+    /**
+     * 新桶在首次同步前先按一个周期的速率放行, 用量在首次同步时从全局令牌桶中扣除
+     */
+    private long initialLease(Limit limit) {
+        return Math.max(1, Math.min(limit.burst, (long) Math.ceil(limit.rate * syncInterval / 1000)));
+    }
+
+    private static void release(Bucket bucket) {
+        if (bucket != null) {
+            bucket.acquired.decrement();
+        }
+    }
+
+    private String reject(String dimension) {
+        Counter.builder("gateway.ratelimit.rejections")
+                .description("Requests rejected by the gateway rate limiter")
+                .tag("dimension", dimension)
+                .register(meterRegistry)
+                .increment();
+        return dimension;
+    }
+
+    /**
+     * 定时结算各桶的用量并领取下一周期的许可; 上一次同步未结束时跳过, 不阻塞调度线程
+     */
+    @Scheduled(initialDelayString = "${gateway.rateLimit.syncInterval:1000}", fixedDelayString = "${gateway.rateLimit.syncInterval:1000}")
+    public void sync() {
+        if (!isEnabled() || !syncing.compareAndSet(false, true)) {
+            return;
+        }
+        long start = System.nanoTime();
+        Flux.fromIterable(buckets.asMap().values())
+                .filter(Bucket::needsSync)
+                .flatMap(this::settle, 64)
+                .doFinally(signal -> {
+                    syncing.set(false);
+                    syncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                })
+                .subscribe(null, e -> log.error("rate limit sync error", e));
+    }
+
+    private Mono<Long> settle(Bucket bucket) {
+        long used = bucket.acquired.sum();
+        Limit limit = bucket.limit;
+        //按近期用量的两倍申请, 至少一个周期的速率, 不超过 burst
+        long requested = Math.max(1, Math.min(limit.burst, Math.max(used * 2, (long) Math.ceil(limit.rate * syncInterval / 1000))));
+        long refund = bucket.leasedFromBudget - used;
+        long now = System.currentTimeMillis();
+        //本次同步之后的拒绝才需要下一次同步
+        bucket.starved = false;
+        bucket.synced = true;
+        Mono<Long> grant;
+        if (redisEnabled) {
+            grant = lease(bucket, now, refund, requested)
+                    .onErrorResume(e -> {
+                        log.warn("rate limit redis sync error, fall back to local budget, key:{}, error:{}", bucket.key, e.getMessage());
+                        return Mono.fromSupplier(() -> bucket.localLease(now, refund, requested));
+                    });
+        } else {
+            grant = Mono.fromSupplier(() -> bucket.localLease(now, refund, requested));
+        }
+        return grant.doOnNext(granted -> {
+            //只扣除结算的部分, 同步期间新增的用量计入下一周期
+            bucket.acquired.add(-used);
+            bucket.leasedFromBudget = granted;
+            bucket.lease = granted;
+        });
+    }
+
+    /**
+     * 桶被移除时结算用量并退回未用完的许可, 不再领取
+     */
+    private void returnLease(Bucket bucket) {
+        long refund = bucket.leasedFromBudget - bucket.acquired.sum();
+        if (!redisEnabled || refund == 0) {
+            return;
+        }
+        lease(bucket, System.currentTimeMillis(), refund, 0)
+                .subscribe(null, e -> log.warn("rate limit lease return error, key:{}, error:{}", bucket.key, e.getMessage()));
+    }
+
+    private Mono<Long> lease(Bucket bucket, long now, long refund, long requested) {
+        Limit limit = bucket.limit;
+        long ttl = (long) Math.ceil(limit.burst / limit.rate * 1000) + syncInterval * 2;
+        return reactiveRedisUtil.execute(LEASE_SCRIPT, Collections.singletonList(CACHE_KEY_PREFIX + bucket.key),
+                Arrays.asList(String.valueOf(limit.rate), String.valueOf(limit.burst), String.valueOf(now),
+                        String.valueOf(refund), String.valueOf(requested), String.valueOf(ttl)));
+    }
+
+    private static final class Limit {
+        final String dimension;
+        final double rate;
+        final long burst;
+
+        private Limit(String dimension, double rate, long burst) {
+            this.dimension = dimension;
+            this.rate = rate;
+            this.burst = burst;
+        }
+
+        /**
+         * @return 未配置(rate 不大于 0)时为 null
+         */
+        static Limit of(String dimension, double rate, long burst) {
+            if (rate <= 0) {
+                return null;
+            }
+            return new Limit(dimension, rate, burst > 0 ? burst : Math.max(1, (long) Math.ceil(rate)));
+        }
+    }
+
+    private static final class Bucket {
+        final String key;
+        final Limit limit;
+        final LongAdder acquired = new LongAdder();
+        //本周期可用的许可数
+        volatile long lease;
+        //上次同步后是否有请求因许可用完被拒绝
+        volatile boolean starved;
+        //上次从全局令牌桶领取的许可数, 新桶的初始许可未领取, 为 0; 由同步线程写入, 桶被移除时读取
+        volatile long leasedFromBudget;
+        //以下字段只由同步线程访问
+        boolean synced;
+        //本地令牌桶状态, Redis 不可用时使用
+        boolean localStarted;
+        double localTokens;
+        long localTs;
+
+        Bucket(String key, Limit limit, long initialLease) {
+            this.key = key;
+            this.limit = limit;
+            this.lease = initialLease;
+        }
+
+        boolean tryAcquire() {
+            //判断与计数之间的并发可能多放行几个请求, 在下次同步时从全局令牌桶中扣除
+            if (acquired.sum() >= lease) {
+                starved = true;
+                return false;
+            }
+            acquired.increment();
+            return true;
+        }
+
+        /**
+         * 新桶、本周期有用量或许可已用完且有请求被拒绝时才需要同步, 闲置的桶不访问 Redis
+         */
+        boolean needsSync() {
+            return !synced || acquired.sum() > 0 || starved;
+        }
+
+        long localLease(long now, long refund, long requested) {
+            if (!localStarted) {
+                localStarted = true;
+                localTokens = limit.burst;
+                localTs = now;
+            }
+            if (now > localTs) {
+                localTokens = Math.min(limit.burst, localTokens + (now - localTs) * limit.rate / 1000);
+                localTs = now;
+            }
+            localTokens = Math.min(limit.burst, localTokens + refund);
+            long grant = Math.max(0, Math.min((long) Math.floor(localTokens), requested));
+            localTokens -= grant;
+            return grant;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.simmed.apigateway.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 非阻塞 Redis 访问, 供运行在 Netty event-loop 上的过滤器使用
+ * <p>
+ * 与 {@link RedisUtil} 相同, 值统一按字符串序列化
+ */
+@Slf4j
+@Component
+public class ReactiveRedisUtil {
+
+    @Autowired
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+
+    /**
+     * 普通缓存获取
+     *
+     * @param key 键
+     * @return 值, 不存在时为空
+     */
+    public Mono<String> get(String key) {
+        return key == null ? Mono.empty() : reactiveStringRedisTemplate.opsForValue().get(key);
+    }
+
+    /**
+     * 判断key是否存在
+     *
+     * @param key 键
+     * @return true 存在 false不存在(包括访问出错)
+     */
+    public Mono<Boolean> hasKey(String key) {
+        if (key == null) {
+            return Mono.just(false);
+        }
+        return reactiveStringRedisTemplate.hasKey(key)
+                .defaultIfEmpty(false)
+                .onErrorResume(e -> {
+                    log.error("redis hasKey error, key:{}", key, e);
+                    return Mono.just(false);
+                });
+    }
+
+    /**
+     * 剩余有效期, 一条 PTTL 完成
+     *
+     * @param key 键
+     * @return 剩余毫秒数, 不过期时为 -1, 不存在(包括访问出错)时为 -2
+     */
+    public Mono<Long> pttl(String key) {
+        if (key == null) {
+            return Mono.just(-2L);
+        }
+        return reactiveStringRedisTemplate.execute(connection -> connection.keyCommands()
+                        .pTtl(ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8))))
+                .next()
+                .defaultIfEmpty(-2L)
+                .onErrorResume(e -> {
+                    log.error("redis pttl error, key:{}", key, e);
+                    return Mono.just(-2L);
+                });
+    }
+
+    /**
+     * 批量获取, 一条 MGET 完成
+     *
+     * @param keys 键
+     * @return 与 keys 顺序一致的值, 不存在的键对应 null
+     */
+    public Mono<List<String>> multiGet(List<String> keys) {
+        return reactiveStringRedisTemplate.opsForValue().multiGet(keys);
+    }
+
+    /**
+     * 普通缓存放入并设置时间
+     *
+     * @param key   键
+     * @param value 值
+     * @param time  时间(秒) time要大于0 如果time小于等于0 将设置无限期
+     * @return true成功 false 失败
+     */
+    public Mono<Boolean> set(String key, String value, long time) {
+        Mono<Boolean> result = time > 0
+                ? reactiveStringRedisTemplate.opsForValue().set(key, value, Duration.ofSeconds(time))
+                : reactiveStringRedisTemplate.opsForValue().set(key, value);
+        return result.onErrorResume(e -> {
+            log.error("redis set error, key:{}", key, e);
+            return Mono.just(false);
+        });
+    }
+
+    /**
+     * 删除缓存
+     *
+     * @param key 可以传一个值 或多个
+     * @return 删除的个数
+     */
+    public Mono<Long> del(String... key) {
+        if (key == null || key.length == 0) {
+            return Mono.just(0L);
+        }
+        return reactiveStringRedisTemplate.delete(key);
+    }
+
+    /**
+     * 向频道发布消息
+     *
+     * @param channel 频道
+     * @param message 消息
+     * @return 收到消息的订阅者个数, 出错时为 0
+     */
+    public Mono<Long> publish(String channel, String message) {
+        return reactiveStringRedisTemplate.convertAndSend(channel, message)
+                .onErrorResume(e -> {
+                    log.error("redis publish error, channel:{}", channel, e);
+                    return Mono.just(0L);
+                });
+    }
+
+    /**
+     * 执行 Lua 脚本(EVALSHA, 脚本未加载时自动 EVAL)
+     *
+     * @param keys 脚本的 KEYS
+     * @param args 脚本的 ARGV
+     * @return 脚本返回值
+     */
+    public <T> Mono<T> execute(RedisScript<T> script, List<String> keys, List<String> args) {
+        return reactiveStringRedisTemplate.execute(script, keys, args).next();
+    }
+}
@@ -0,0 +1,264 @@
+package com.simmed.apigateway.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 相同请求合并(single-flight)
+ * <p>
+ * 同一键的请求在途时, 后到的请求(follower)不再转发上游, 等待第一个请求(leader)的响应。
+ * leader 的响应 DataBuffer 以切片方式各持有一次引用, 结束时为每个 follower 生成各自持有引用的切片, 不复制内容;
+ * 响应不可共享(非 200、Set-Cookie、超过 maxSize)、出错或被取消时, follower 得到空结果, 由调用方自行转发
+ */
+@Slf4j
+@Component
+public class RequestCoalescer {
+
+    @Value("${gateway.coalescing.enabled:true}")
+    private boolean enabled;
+    //单个共享响应持有的最大字节数, 超过时不再共享
+    @Value("${gateway.coalescing.maxSize:4194304}")
+    private long maxSize;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private Counter leaders;
+    private Counter followers;
+    private Counter fallbacks;
+
+    @PostConstruct
+    public void init() {
+        leaders = counter("leader");
+        followers = counter("follower");
+        fallbacks = counter("fallback");
+        Gauge.builder("gateway.coalescing.inflight", flights, ConcurrentHashMap::size)
+                .description("Distinct coalesced requests in flight")
+                .register(meterRegistry);
+    }
+
+    private Counter counter(String role) {
+        return Counter.builder("gateway.coalescing.requests")
+                .description("Requests handled by single-flight coalescing")
+                .tag("role", role)
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 登记为 leader
+     *
+     * @param rawId leader 请求 id 的原始 JSON 文本, 上游响应中的 id 与之相同
+     * @return 新的 flight, 已有相同请求在途时为 null
+     */
+    public Flight lead(String key, String rawId) {
+        Flight flight = new Flight(key, rawId);
+        if (flights.putIfAbsent(key, flight) != null) {
+            return null;
+        }
+        leaders.increment();
+        return flight;
+    }
+
+    /**
+     * 等待在途的相同请求的响应, 没有在途请求或其响应不可共享时为空
+     */
+    public Mono<SharedResponse> follow(String key) {
+        Flight flight = flights.get(key);
+        if (flight == null) {
+            fallbacks.increment();
+            return Mono.empty();
+        }
+        return Mono.<SharedResponse>create(sink -> {
+            if (!flight.join(sink)) {
+                sink.success();
+            }
+        })
+                .doOnNext(response -> followers.increment())
+                .switchIfEmpty(Mono.fromRunnable(fallbacks::increment))
+                //取消后才送达的响应由这里释放
+                .doOnDiscard(SharedResponse.class, SharedResponse::release);
+    }
+
+    /**
+     * 一次在途请求, 由 leader 的响应装饰器依次调用 begin / add / complete, 结束时(含出错、取消)调用 abandon
+     */
+    public final class Flight {
+        private final String key;
+        private final String rawId;
+        private final List<DataBuffer> buffers = new ArrayList<>();
+        private final List<MonoSink<SharedResponse>> waiting = new ArrayList<>();
+        private HttpStatus status;
+        private HttpHeaders headers;
+        private boolean shareable;
+        private long size;
+        private boolean done;
+
+        private Flight(String key, String rawId) {
+            this.key = key;
+            this.rawId = rawId;
+        }
+
+        synchronized boolean join(MonoSink<SharedResponse> sink) {
+            if (done) {
+                return false;
+            }
+            waiting.add(sink);
+            sink.onCancel(() -> leave(sink));
+            return true;
+        }
+
+        private synchronized void leave(MonoSink<SharedResponse> sink) {
+            waiting.remove(sink);
+        }
+
+        /**
+         * 收到上游响应头
+         *
+         * @param headers   上游响应头, 复制保存
+         * @param shareable 调用方判断的响应是否可共享
+         */
+        public synchronized void begin(HttpStatus status, HttpHeaders headers, boolean shareable) {
+            this.status = status;
+            this.shareable = shareable && HttpStatus.OK.equals(status) && !headers.containsKey(HttpHeaders.SET_COOKIE);
+            HttpHeaders copy = new HttpHeaders();
+            //ResponseBodyFilter 会改写 leader 的响应头, 逐个复制值列表
+            headers.forEach((name, values) -> copy.put(name, new ArrayList<>(values)));
+            this.headers = HttpHeaders.readOnlyHttpHeaders(copy);
+        }
+
+        /**
+         * 上游响应体的一段, 不改变其读位置与引用计数
+         */
+        public synchronized void add(DataBuffer buffer) {
+            if (!shareable || done) {
+                return;
+            }
+            size += buffer.readableByteCount();
+            if (size > maxSize) {
+                shareable = false;
+                releaseBuffers();
+                return;
+            }
+            buffers.add(buffer.retainedSlice(buffer.readPosition(), buffer.readableByteCount()));
+        }
+
+        /**
+         * 上游响应体结束, 把响应交给等待中的 follower
+         */
+        public void complete() {
+            List<MonoSink<SharedResponse>> sinks;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                flights.remove(key, this);
+                sinks = new ArrayList<>(waiting);
+                waiting.clear();
+            }
+            for (MonoSink<SharedResponse> sink : sinks) {
+                if (shareable) {
+                    sink.success(new SharedResponse(status, headers, rawId, retainedSlices()));
+                } else {
+                    sink.success();
+                }
+            }
+            synchronized (this) {
+                releaseBuffers();
+            }
+        }
+
+        /**
+         * leader 结束; 未正常完成时, 等待中的 follower 自行转发
+         */
+        public void abandon() {
+            List<MonoSink<SharedResponse>> sinks;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                flights.remove(key, this);
+                sinks = new ArrayList<>(waiting);
+                waiting.clear();
+                releaseBuffers();
+            }
+            sinks.forEach(MonoSink::success);
+        }
+
+        private synchronized List<DataBuffer> retainedSlices() {
+            List<DataBuffer> slices = new ArrayList<>(buffers.size());
+            for (DataBuffer buffer : buffers) {
+                slices.add(buffer.retainedSlice(buffer.readPosition(), buffer.readableByteCount()));
+            }
+            return slices;
+        }
+
+        private void releaseBuffers() {
+            buffers.forEach(DataBufferUtils::release);
+            buffers.clear();
+        }
+    }
+
+    /**
+     * 交给一个 follower 的响应, body 中的 DataBuffer 由该 follower 持有, 写出后由 Netty 释放
+     */
+    public static final class SharedResponse {
+        private final HttpStatus status;
+        private final HttpHeaders headers;
+        private final String rawId;
+        private final List<DataBuffer> body;
+
+        SharedResponse(HttpStatus status, HttpHeaders headers, String rawId, List<DataBuffer> body) {
+            this.status = status;
+            this.headers = headers;
+            this.rawId = rawId;
+            this.body = Collections.unmodifiableList(body);
+        }
+
+        public HttpStatus getStatus() {
+            return status;
+        }
+
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        /**
+         * 响应中 id 的原始 JSON 文本(即 leader 请求的 id)
+         */
+        public String getRawId() {
+            return rawId;
+        }
+
+        public List<DataBuffer> getBody() {
+            return body;
+        }
+
+        public void release() {
+            body.forEach(DataBufferUtils::release);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.simmed.apigateway.utils;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.simmed.apigateway.dto.CachedResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 幂等 JSON-RPC 方法的响应缓存
+ * <p>
+ * 键由路由、路径、method、规范化(键排序)后的 params 摘要以及可选的用户组成, TTL 取 API 目录中的 cacheSeconds。
+ * 条目保存压缩后的字节(上游已压缩时原样保存, 未压缩时由网关 gzip), 本地按字节数有界, 可选 Redis 二级缓存供多实例共享。
+ * 出错的 JSON-RPC 响应(顶层 error 非 null)或没有 id 的响应不缓存; 命中时按请求的 id 改写响应 id, 客户端不接受缓存的编码时先解压。
+ * 条目只保存 Content-Type 与 Content-Encoding, 上游的其他响应头(Cache-Control、ETag、自定义头等)不保存, 命中时不输出
+ */
+@Slf4j
+@Component
+public class ResponseCacheUtil {
+
+    public static final String CACHE_KEY_PREFIX = "SIMMED_Gateway_ResponseCache:";
+
+    @Value("${gateway.responseCache.enabled:true}")
+    private boolean enabled;
+    //本地缓存的总字节数上限
+    @Value("${gateway.responseCache.maxBytes:67108864}")
+    private long maxBytes;
+    //单个响应(上游原始字节)超过该大小不缓存
+    @Value("${gateway.responseCache.maxEntrySize:1048576}")
+    private int maxEntrySize;
+    @Value("${gateway.responseCache.redis.enabled:false}")
+    private boolean redisEnabled;
+    //未压缩的响应小于该字节数时不压缩保存
+    @Value("${gateway.compression.minSize:1024}")
+    private int compressMinSize;
+
+    @Autowired
+    private ReactiveRedisUtil reactiveRedisUtil;
+    @Autowired
+    private GzipCodec gzipCodec;
+    @Autowired
+    private BrotliCodec brotliCodec;
+    @Autowired
+    private CpuWorkScheduler cpuWorkScheduler;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, CachedResponse> localCache;
+
+    @PostConstruct
+    public void init() {
+        localCache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, CachedResponse value) -> value.getBody().length + key.length() * 2)
+                .expireAfter(new Expiry<String, CachedResponse>() {
+                    @Override
+                    public long expireAfterCreate(String key, CachedResponse value, long currentTime) {
+                        return remainingNanos(value);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, CachedResponse value, long currentTime, long currentDuration) {
+                        return remainingNanos(value);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, CachedResponse value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "gateway.response.cache");
+    }
+
+    private static long remainingNanos(CachedResponse value) {
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, value.getExpireAt() - System.currentTimeMillis()));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * 缓存键, user 为 null 时各用户共享; 请求体不是 JSON 对象时抛出异常
+     *
+     * @param requestBody 请求体, 取其中的 params 规范化
+     */
+    public String key(String routeId, String path, String rawQuery, String method, String requestBody, String user) {
+        Object params = JSON.parseObject(requestBody).get("params");
+        //键排序, 与参数书写顺序无关
+        String normalized = JSON.toJSONString(params, SerializerFeature.MapSortField, SerializerFeature.SortField);
+        String digest = sha256Hex(path + '\n' + StringUtils.defaultString(rawQuery) + '\n' + normalized + '\n' + StringUtils.defaultString(user));
+        return CACHE_KEY_PREFIX + routeId + ':' + method + ':' + digest;
+    }
+
+    private static String sha256Hex(String value) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 查找未过期的条目, 本地未命中时查 Redis 并回填本地
+     */
+    public Mono<CachedResponse> get(String key) {
+        CachedResponse local = localCache.getIfPresent(key);
+        if (local != null || !redisEnabled) {
+            return Mono.justOrEmpty(local);
+        }
+        return reactiveRedisUtil.get(key)
+                .flatMap(value -> cpuWorkScheduler.run(value.length(), () -> JSON.parseObject(value, CachedResponse.class)))
+                .filter(entry -> entry.getBody() != null && entry.getExpireAt() > System.currentTimeMillis())
+                .doOnNext(entry -> localCache.put(key, entry))
+                .onErrorResume(e -> {
+                    log.error("response cache redis get error, key:{}", key, e);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * 保存上游响应, 在后台完成解压检查、压缩与写入, 不影响当前响应
+     *
+     * @param body     上游原始字节
+     * @param encoding 上游 Content-Encoding
+     */
+    public void put(String key, byte[] body, String encoding, String contentType, long ttlSeconds) {
+        prepare(body, encoding, contentType, ttlSeconds)
+                .flatMap(entry -> {
+                    localCache.put(key, entry);
+                    if (!redisEnabled) {
+                        return Mono.empty();
+                    }
+                    return reactiveRedisUtil.set(key, JSON.toJSONString(entry), ttlSeconds);
+                })
+                .subscribe(null, e -> log.error("response cache put error, key:{}", key, e));
+    }
+
+    private Mono<CachedResponse> prepare(byte[] body, String encoding, String contentType, long ttlSeconds) {
+        String contentEncoding = isIdentity(encoding) ? null : encoding.toLowerCase(Locale.ROOT);
+        return decode(body, contentEncoding).flatMap(decoded -> cpuWorkScheduler.run(decoded.length, () -> {
+            JsonRpcScanner scanner = new JsonRpcScanner();
+            scanner.feed(decoded, 0, decoded.length);
+            //没有 id 时命中无法改写为请求的 id
+            if (scanner.hasError() || scanner.getIdStart() < 0) {
+                return null;
+            }
+            CachedResponse entry = new CachedResponse();
+            entry.setContentType(contentType);
+            if (contentEncoding == null && decoded.length >= compressMinSize) {
+                entry.setContentEncoding(ContentEncodingNegotiator.GZIP);
+                entry.setBody(gzipCodec.encode(decoded));
+            } else {
+                entry.setContentEncoding(contentEncoding);
+                entry.setBody(body);
+            }
+            entry.setRawId(scanner.getRawId());
+            entry.setIdStart((int) scanner.getIdStart());
+            entry.setIdEnd((int) scanner.getIdEnd());
+            entry.setExpireAt(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds));
+            return entry;
+        }));
+    }
+
+    /**
+     * 按当前请求生成要输出的条目: id 相同且客户端接受该编码时直接使用缓存的字节,
+     * 否则解压并改写 id, 以未压缩形式输出(由 ResponseBodyFilter 按协商结果重新压缩)
+     *
+     * @param rawId          请求 id 的原始 JSON 文本, 不能为 null
+     * @param acceptEncoding 客户端 Accept-Encoding
+     */
+    public Mono<CachedResponse> render(CachedResponse entry, String rawId, String acceptEncoding) {
+        boolean accepted = entry.getContentEncoding() == null
+                || (StringUtils.isNotBlank(acceptEncoding) && ContentEncodingNegotiator.quality(acceptEncoding, entry.getContentEncoding()) > 0);
+        boolean sameId = rawId.equals(entry.getRawId());
+        if (accepted && sameId) {
+            return Mono.just(entry);
+        }
+        return decode(entry.getBody(), entry.getContentEncoding()).map(decoded -> {
+            CachedResponse rendered = new CachedResponse();
+            rendered.setContentType(entry.getContentType());
+            rendered.setBody(sameId || entry.getIdStart() < 0 ? decoded : splice(decoded, entry.getIdStart(), entry.getIdEnd(), rawId));
+            rendered.setRawId(rawId);
+            rendered.setExpireAt(entry.getExpireAt());
+            return rendered;
+        });
+    }
+
+    /**
+     * 解压响应并把顶层 id 改写为 rawId, 找不到 id 时只解压
+     *
+     * @param encoding 响应的 Content-Encoding
+     * @return 未压缩的响应
+     */
+    public Mono<byte[]> rewriteId(byte[] body, String encoding, String rawId) {
+        return decode(body, isIdentity(encoding) ? null : encoding.toLowerCase(Locale.ROOT))
+                .flatMap(decoded -> cpuWorkScheduler.run(decoded.length, () -> {
+                    JsonRpcScanner scanner = new JsonRpcScanner();
+                    scanner.feed(decoded, 0, decoded.length);
+                    if (scanner.getIdStart() < 0) {
+                        return decoded;
+                    }
+                    return splice(decoded, (int) scanner.getIdStart(), (int) scanner.getIdEnd(), rawId);
+                }));
+    }
+
+    private static byte[] splice(byte[] decoded, int start, int end, String rawId) {
+        byte[] id = rawId.getBytes(StandardCharsets.UTF_8);
+        byte[] body = new byte[decoded.length - (end - start) + id.length];
+        System.arraycopy(decoded, 0, body, 0, start);
+        System.arraycopy(id, 0, body, start, id.length);
+        System.arraycopy(decoded, end, body, start + id.length, decoded.length - end);
+        return body;
+    }
+
+    /**
+     * 上游编码是否可以缓存(需要能解压检查内容)
+     */
+    public boolean isSupportedEncoding(String encoding) {
+        return isIdentity(encoding) || ContentEncodingNegotiator.GZIP.equalsIgnoreCase(encoding)
+                || (ContentEncodingNegotiator.BR.equalsIgnoreCase(encoding) && brotliCodec.isAvailable());
+    }
+
+    private Mono<byte[]> decode(byte[] body, String encoding) {
+        if (encoding == null) {
+            return Mono.just(body);
+        }
+        if (ContentEncodingNegotiator.BR.equals(encoding)) {
+            return brotliCodec.decompress(body);
+        }
+        return cpuWorkScheduler.run(body.length, () -> gzipCodec.decode(body));
+    }
+
+    private static boolean isIdentity(String encoding) {
+        return StringUtils.isBlank(encoding) || "identity".equalsIgnoreCase(encoding);
+    }
+}
@@ -0,0 +1,170 @@
+package com.simmed.apigateway.utils;
+
+import org.springframework.cloud.gateway.handler.predicate.PredicateDefinition;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.http.server.PathContainer;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按 Path 断言的路径段建立的路由前缀树
+ * <p>
+ * 只用于缩小候选范围: 字面量路径段逐级建立节点, 遇到通配符、路径变量或 /** 时, 路由挂在当前节点上, 经过该节点的路径都是候选;
+ * 没有 Path 断言或无法解析的路由对所有路径都是候选。候选按路由原有顺序返回, 是否匹配仍由路由完整的断言判断,
+ * 因此结果与逐个判断全部路由一致, 查找只与路径段数有关
+ */
+public final class RoutePathIndex {
+
+    private static final String PATH_PREDICATE = "Path";
+
+    private final List<Route> routes;
+    private final Node root = new Node();
+    //不在树中的路由, 对所有路径都是候选
+    private final BitSet unindexed = new BitSet();
+
+    private RoutePathIndex(List<Route> routes) {
+        this.routes = routes;
+    }
+
+    /**
+     * @param routes      排序后的路由
+     * @param definitions 路由 id 对应的定义, 没有定义的路由(如代码中定义的路由)不进入前缀树
+     */
+    public static RoutePathIndex build(List<Route> routes, Map<String, RouteDefinition> definitions) {
+        RoutePathIndex index = new RoutePathIndex(Collections.unmodifiableList(new ArrayList<>(routes)));
+        for (int i = 0; i < routes.size(); i++) {
+            List<String> patterns = pathPatterns(definitions.get(routes.get(i).getId()));
+            boolean indexed = patterns != null && !patterns.isEmpty();
+            if (indexed) {
+                for (String pattern : patterns) {
+                    indexed &= index.insert(pattern.trim(), i);
+                }
+            }
+            if (!indexed) {
+                index.unindexed.set(i);
+            }
+        }
+        return index;
+    }
+
+    public int size() {
+        return routes.size();
+    }
+
+    public int unindexedCount() {
+        return unindexed.cardinality();
+    }
+
+    /**
+     * 可能匹配该路径的路由, 按路由顺序
+     */
+    public List<Route> candidates(PathContainer path) {
+        BitSet hits = (BitSet) unindexed.clone();
+        Node node = root;
+        hits.or(node.prefix);
+        boolean reachedEnd = true;
+        for (PathContainer.Element element : path.elements()) {
+            if (!(element instanceof PathContainer.PathSegment)) {
+                continue;
+            }
+            String segment = ((PathContainer.PathSegment) element).valueToMatch();
+            if (segment.isEmpty()) {
+                continue;
+            }
+            node = node.children.get(segment);
+            if (node == null) {
+                reachedEnd = false;
+                break;
+            }
+            hits.or(node.prefix);
+        }
+        if (reachedEnd) {
+            hits.or(node.exact);
+        }
+        List<Route> candidates = new ArrayList<>(hits.cardinality());
+        for (int i = hits.nextSetBit(0); i >= 0; i = hits.nextSetBit(i + 1)) {
+            candidates.add(routes.get(i));
+        }
+        return candidates;
+    }
+
+    /**
+     * @return 是否能放入前缀树, 否则该路由对所有路径都是候选
+     */
+    private boolean insert(String pattern, int routeIndex) {
+        if (!pattern.startsWith("/")) {
+            return false;
+        }
+        String[] segments = pattern.split("/");
+        Node node = root;
+        for (String segment : segments) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (isWildcard(segment)) {
+                //通配符、路径变量与 /** 之后的路径不再区分
+                node.prefix.set(routeIndex);
+                return true;
+            }
+            node = node.children.computeIfAbsent(segment, key -> new Node());
+        }
+        node.exact.set(routeIndex);
+        return true;
+    }
+
+    private static boolean isWildcard(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            //% 编码与矩阵变量按通配处理, 交给断言判断
+            if (c == '*' || c == '?' || c == '{' || c == '}' || c == '%' || c == ';') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 路由第一个 Path 断言的路径模式, 没有时为 null
+     */
+    private static List<String> pathPatterns(RouteDefinition definition) {
+        if (definition == null) {
+            return null;
+        }
+        for (PredicateDefinition predicate : definition.getPredicates()) {
+            if (!PATH_PREDICATE.equals(predicate.getName())) {
+                continue;
+            }
+            List<String> patterns = new ArrayList<>();
+            for (Map.Entry<String, String> arg : predicate.getArgs().entrySet()) {
+                String key = arg.getKey();
+                String value = arg.getValue();
+                if (value == null) {
+                    continue;
+                }
+                if (key.startsWith("_genkey_") || "pattern".equals(key)) {
+                    patterns.add(value);
+                } else if ("patterns".equals(key)) {
+                    for (String pattern : value.split(",")) {
+                        patterns.add(pattern);
+                    }
+                }
+            }
+            return patterns;
+        }
+        return null;
+    }
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        //经过该节点的路径都是候选
+        final BitSet prefix = new BitSet();
+        //路径恰好在该节点结束时是候选
+        final BitSet exact = new BitSet();
+    }
+}
@@ -0,0 +1,282 @@
+package com.simmed.apigateway.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.simmed.apigateway.dto.TokenCacheDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按 token 一次性读取会话、权限和脱敏规则
+ * <p>
+ * 会话键的 PTTL 与权限、脱敏规则的 MGET 同时发出, 在共享的 Lettuce 连接上以流水线方式写出, 只需一次网络往返。
+ * 已登录的结果放入本地有界缓存, 有效期取 expireSeconds 与会话键剩余有效期中较小者, 会话自然过期后不会继续放行;
+ * 其他服务直接删除会话时, 最多在 expireSeconds(默认 5 秒)后失效, 无需额外配置。
+ * 另外通过 gateway.tokenCache.channel 频道上发布的 token 立即失效: 经网关的退出登录(gateway.tokenCache.logoutMethods)成功后由网关发布,
+ * 修改会话、权限的其他服务也可向该频道发布 token。Redis keyspace 事件会把库中所有键的写入推给每个网关实例,
+ * 且依赖服务端开启 notify-keyspace-events, 只作为可选项(gateway.tokenCache.keyspaceEvents)。
+ * 订阅建立之前与断开之后不读写本地缓存, 断开时清空缓存并按退避重新订阅, 订阅成功后退避重新从 1s 开始
+ */
+@Slf4j
+@Component
+public class TokenCacheUtil {
+
+    public static final String PermissionCacheKey = "_PermissionApis";
+    public static final String ApiDataMaskCacheKey = "_ApiDataMaskRules";
+
+    @Value("${gateway.tokenCache.enabled:true}")
+    private boolean enabled;
+    @Value("${gateway.tokenCache.maximumSize:100000}")
+    private long maximumSize;
+    @Value("${gateway.tokenCache.expireSeconds:5}")
+    private long expireSeconds;
+    @Value("${gateway.tokenCache.channel:SIMMED_Gateway_TokenEvict}")
+    private String evictChannel;
+    //同时订阅 __keyevent@N__ 的 set/del/expired/evicted 事件, 需服务端开启 notify-keyspace-events Egx$
+    @Value("${gateway.tokenCache.keyspaceEvents:false}")
+    private boolean keyspaceEvents;
+    //退出登录等使 token 失效的 API(JSON-RPC method), 逗号分隔, 请求成功后发布失效消息
+    @Value("${gateway.tokenCache.logoutMethods:}")
+    private String logoutMethods;
+    @Value("${spring.redis.database:0}")
+    private int database;
+
+    @Autowired
+    private ReactiveRedisUtil reactiveRedisUtil;
+    @Autowired
+    private PermissionSetUtil permissionSetUtil;
+    @Autowired
+    private ReactiveRedisConnectionFactory reactiveRedisConnectionFactory;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private CpuWorkScheduler cpuWorkScheduler;
+
+    private Cache<String, TokenCacheDto> nearCache;
+    private Counter invalidations;
+    private Set<String> logoutMethodSet = Collections.emptySet();
+    private Disposable subscription;
+    //失效消息的订阅已建立, 否则不读写本地缓存
+    private volatile boolean subscribed;
+    //连续重新订阅的次数, 订阅成功后清零
+    private final AtomicInteger resubscribeAttempts = new AtomicInteger();
+    //正在从 Redis 读取的 token, 读取期间收到失效时移除标记, 读取结果不再放入缓存, 避免把已失效的数据写回
+    private final Map<String, Object> loading = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        nearCache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<String, TokenCacheDto>() {
+                    @Override
+                    public long expireAfterCreate(String key, TokenCacheDto value, long currentTime) {
+                        return expireNanos(value);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, TokenCacheDto value, long currentTime, long currentDuration) {
+                        return expireNanos(value);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, TokenCacheDto value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, nearCache, "gateway.token.cache");
+        invalidations = Counter.builder("gateway.token.cache.invalidations")
+                .description("token near-cache entries removed by redis notifications")
+                .register(meterRegistry);
+
+        Set<String> methods = new HashSet<>();
+        for (String method : logoutMethods.split(",")) {
+            if (!method.trim().isEmpty()) {
+                methods.add(method.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        logoutMethodSet = methods;
+
+        //订阅出错(如连接断开)期间的失效消息已丢失, 停用并清空缓存后重新建立订阅, 间隔 1s 起倍增至 30s
+        subscription = Flux.defer(this::receive)
+                .retryWhen(errors -> errors.concatMap(error -> {
+                    subscribed = false;
+                    loading.clear();
+                    nearCache.invalidateAll();
+                    long delay = Math.min(30000L, 1000L << Math.min(resubscribeAttempts.getAndIncrement(), 5));
+                    log.error("TokenCache subscribe error, near cache disabled, resubscribe in {}ms", delay, error);
+                    return Mono.delay(Duration.ofMillis(delay));
+                }))
+                .subscribe(this::evict);
+    }
+
+    /**
+     * 在独立的连接上订阅失效频道, 服务端确认订阅后才启用本地缓存
+     */
+    private Flux<String> receive() {
+        List<ByteBuffer> channels = new ArrayList<>();
+        channels.add(bytes(evictChannel));
+        if (keyspaceEvents) {
+            String keyevent = "__keyevent@" + database + "__:";
+            channels.add(bytes(keyevent + "del"));
+            channels.add(bytes(keyevent + "expired"));
+            channels.add(bytes(keyevent + "evicted"));
+            channels.add(bytes(keyevent + "set"));
+        }
+        return Flux.usingWhen(Mono.fromSupplier(reactiveRedisConnectionFactory::getReactiveConnection),
+                connection -> connection.pubSubCommands().createSubscription()
+                        .flatMapMany(pubSub -> pubSub.subscribe(channels.toArray(new ByteBuffer[0]))
+                                .doOnSuccess(v -> {
+                                    //订阅之前读取的结果可能错过了失效消息
+                                    loading.clear();
+                                    nearCache.invalidateAll();
+                                    resubscribeAttempts.set(0);
+                                    subscribed = true;
+                                    log.info("TokenCache subscribed, channels:{}", channels.size());
+                                })
+                                .thenMany(Flux.defer(pubSub::receive))
+                                .map(message -> StandardCharsets.UTF_8.decode(message.getMessage()).toString())
+                                .doFinally(signal -> pubSub.cancel().subscribe(null,
+                                        e -> log.warn("TokenCache unsubscribe error:{}", e.getMessage())))),
+                ReactiveRedisConnection::closeLater);
+    }
+
+    private static ByteBuffer bytes(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 缓存有效期不超过会话键的剩余有效期
+     */
+    private long expireNanos(TokenCacheDto value) {
+        long expire = TimeUnit.SECONDS.toNanos(expireSeconds);
+        long sessionTtl = value.getSessionTtlMillis();
+        return sessionTtl >= 0 ? Math.min(expire, TimeUnit.MILLISECONDS.toNanos(sessionTtl)) : expire;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        subscribed = false;
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    /**
+     * 是否为退出登录等使 token 失效的 API
+     */
+    public boolean isLogoutMethod(String method) {
+        return method != null && !logoutMethodSet.isEmpty() && logoutMethodSet.contains(method.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 使 token 的缓存失效: 本实例立即移除, 并向 gateway.tokenCache.channel 发布, 其他实例收到后移除
+     */
+    public Mono<Void> publishEviction(String token) {
+        if (nearCache == null || token == null) {
+            return Mono.empty();
+        }
+        evict(token);
+        return reactiveRedisUtil.publish(evictChannel, token).then();
+    }
+
+    public Mono<TokenCacheDto> load(String token) {
+        if (nearCache == null) {
+            return loadFromRedis(token);
+        }
+        return Mono.defer(() -> {
+            if (!subscribed) {
+                return loadFromRedis(token);
+            }
+            TokenCacheDto cached = nearCache.getIfPresent(token);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            Object marker = new Object();
+            loading.put(token, marker);
+            return loadFromRedis(token)
+                    .doOnNext(cache -> {
+                        //未登录的结果不缓存, 避免登录后仍被拒绝
+                        if (loading.remove(token, marker) && subscribed && cache.isLoggedIn()) {
+                            nearCache.put(token, cache);
+                        }
+                    })
+                    .doFinally(signal -> loading.remove(token, marker));
+        });
+    }
+
+    private Mono<TokenCacheDto> loadFromRedis(String token) {
+        List<String> keys = Arrays.asList(token + PermissionCacheKey, token + ApiDataMaskCacheKey);
+        return Mono.zip(reactiveRedisUtil.pttl(token), reactiveRedisUtil.multiGet(keys))
+                .flatMap(t -> {
+                    String permissionApis = t.getT2().get(0);
+                    //权限列表很大时解析交给 CPU 工作线程
+                    return cpuWorkScheduler.run(permissionApis == null ? 0 : permissionApis.length(), () -> {
+                        TokenCacheDto cache = new TokenCacheDto();
+                        cache.setToken(token);
+                        //PTTL 为 -2 时会话键不存在
+                        cache.setLoggedIn(t.getT1() != -2);
+                        cache.setSessionTtlMillis(t.getT1() < 0 ? -1 : t.getT1());
+                        cache.setPermissionApis(permissionApis);
+                        cache.setPermissionSet(permissionSetUtil.of(permissionApis));
+                        cache.setApiDataMaskRules(t.getT2().get(1));
+                        return cache;
+                    });
+                });
+    }
+
+    /**
+     * 会话键、权限键、脱敏规则键任一变化都使该 token 的缓存失效
+     *
+     * @param key 发生变化的 Redis 键或频道消息中的 token
+     */
+    private void evict(String key) {
+        if (key == null) {
+            return;
+        }
+        String token = key;
+        if (key.endsWith(PermissionCacheKey)) {
+            token = key.substring(0, key.length() - PermissionCacheKey.length());
+        } else if (key.endsWith(ApiDataMaskCacheKey)) {
+            token = key.substring(0, key.length() - ApiDataMaskCacheKey.length());
+        }
+        loading.remove(token);
+        //asMap 上的操作不计入命中统计
+        if (nearCache.asMap().remove(token) != null) {
+            invalidations.increment();
+            log.debug("TokenCache evict:{}", token);
+        }
+    }
+}
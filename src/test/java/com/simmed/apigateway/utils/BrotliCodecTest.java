@@ -0,0 +1,108 @@
+package com.simmed.apigateway.utils;
+
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class BrotliCodecTest {
+
+    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+    private final CpuWorkScheduler cpuWorkScheduler = new CpuWorkScheduler();
+    private final BrotliCodec codec = new BrotliCodec();
+    private final byte[] content = content(100000);
+    private Encoder.Parameters parameters;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(cpuWorkScheduler, "threads", 1);
+        ReflectionTestUtils.setField(cpuWorkScheduler, "queueSize", 10);
+        ReflectionTestUtils.setField(cpuWorkScheduler, "offloadThreshold", 65536L);
+        ReflectionTestUtils.setField(cpuWorkScheduler, "meterRegistry", new SimpleMeterRegistry());
+        cpuWorkScheduler.init();
+        ReflectionTestUtils.setField(codec, "quality", 4);
+        ReflectionTestUtils.setField(codec, "window", 22);
+        ReflectionTestUtils.setField(codec, "cpuWorkScheduler", cpuWorkScheduler);
+        codec.init();
+        //没有当前平台的 native 库时跳过
+        assumeTrue(codec.isAvailable());
+        parameters = codec.parameters(null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cpuWorkScheduler.destroy();
+    }
+
+    @Test
+    void compressRoundTrip() {
+        byte[] compressed = codec.compress(content, parameters).block();
+
+        assertArrayEquals(content, codec.decompress(compressed).block());
+    }
+
+    @Test
+    void streamRoundTripWithSmallChunks() {
+        byte[] compressed = join(codec.encode(chunks(content, 1000), bufferFactory, parameters));
+
+        assertArrayEquals(content, codec.decompress(compressed).block());
+        assertArrayEquals(content, join(codec.decode(chunks(compressed, 7), bufferFactory)));
+    }
+
+    @Test
+    void emptyInputRoundTrip() {
+        byte[] compressed = join(codec.encode(Flux.empty(), bufferFactory, parameters));
+
+        assertArrayEquals(new byte[0], codec.decompress(compressed).block());
+    }
+
+    @Test
+    void truncatedInputFails() {
+        byte[] compressed = codec.compress(content, parameters).block();
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+
+        assertThrows(RuntimeException.class, () -> codec.decompress(truncated).block());
+        assertThrows(RuntimeException.class, () -> join(codec.decode(chunks(truncated, 100), bufferFactory)));
+    }
+
+    private Flux<DataBuffer> chunks(byte[] bytes, int chunkSize) {
+        List<DataBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            buffers.add(bufferFactory.wrap(Arrays.copyOfRange(bytes, i, Math.min(bytes.length, i + chunkSize))));
+        }
+        return Flux.fromIterable(buffers);
+    }
+
+    private static byte[] join(Flux<DataBuffer> flux) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (DataBuffer buffer : flux.collectList().block()) {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] content(int size) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < size; i++) {
+            builder.append("{\"id\":").append(i).append(",\"name\":\"患者").append(i * 7919 % 1000).append("\"},");
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,70 @@
+package com.simmed.apigateway.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CpuWorkSchedulerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CpuWorkScheduler scheduler = new CpuWorkScheduler();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(scheduler, "threads", 1);
+        ReflectionTestUtils.setField(scheduler, "queueSize", 1);
+        ReflectionTestUtils.setField(scheduler, "offloadThreshold", 1L);
+        ReflectionTestUtils.setField(scheduler, "meterRegistry", meterRegistry);
+        scheduler.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        scheduler.destroy();
+    }
+
+    @Test
+    void smallWorkRunsOnCurrentThread() {
+        String caller = Thread.currentThread().getName();
+
+        assertEquals(caller, scheduler.run(0, () -> Thread.currentThread().getName()).block(Duration.ofSeconds(10)));
+    }
+
+    @Test
+    void largeWorkRunsOnWorker() {
+        String thread = scheduler.run(1, () -> Thread.currentThread().getName()).block(Duration.ofSeconds(10));
+
+        assertTrue(thread.startsWith("gateway-cpu-"), thread);
+    }
+
+    @Test
+    void overflowNeverRunsOnSubmittingThread() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        //占住唯一的工作线程并填满队列
+        scheduler.run(1, () -> {
+            started.countDown();
+            return release.await(10, TimeUnit.SECONDS);
+        }).subscribe();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        scheduler.run(1, () -> true).subscribe();
+
+        String caller = Thread.currentThread().getName();
+        String thread = scheduler.run(1, () -> Thread.currentThread().getName()).block(Duration.ofSeconds(10));
+
+        assertNotEquals(caller, thread);
+        assertTrue(thread.startsWith("boundedElastic"), thread);
+        assertEquals(1.0, meterRegistry.get("gateway.cpu.rejections").counter().count());
+    }
+}
@@ -0,0 +1,200 @@
+package com.simmed.apigateway.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GzipCodecTest {
+
+    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+    private final GzipCodec codec = new GzipCodec();
+    private final byte[] content = content(20000);
+
+    GzipCodecTest() {
+        ReflectionTestUtils.setField(codec, "level", 6);
+    }
+
+    @Test
+    void encodedDataIsReadableByGzipInputStream() throws IOException {
+        assertArrayEquals(content, gunzip(codec.encode(content)));
+        assertArrayEquals(new byte[0], gunzip(codec.encode(new byte[0])));
+    }
+
+    @Test
+    void decodesGzipOutputStream() throws IOException {
+        assertArrayEquals(content, codec.decode(gzip(content)));
+    }
+
+    @Test
+    void decodesConcatenatedMembers() throws IOException {
+        byte[] second = "second member".getBytes(StandardCharsets.UTF_8);
+
+        assertArrayEquals(concat(content, second), codec.decode(concat(gzip(content), gzip(second))));
+    }
+
+    @Test
+    void ignoresTrailingBytesLikeGzipInputStream() throws IOException {
+        byte[] gzip = gzip(content);
+        for (byte[] trailing : new byte[][]{{0}, {0, 0, 0, 0}, "garbage".getBytes(StandardCharsets.UTF_8), {0x1f}, {0x1f, (byte) 0x8b}}) {
+            byte[] input = concat(gzip, trailing);
+            assertArrayEquals(gunzip(input), codec.decode(input));
+            assertArrayEquals(content, decodeStream(input, 7));
+        }
+    }
+
+    @Test
+    void readsOptionalHeaderFields() throws IOException {
+        //FEXTRA + FNAME + FCOMMENT + FHCRC
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{0x1f, (byte) 0x8b, 8, 4 | 8 | 16 | 2, 0, 0, 0, 0, 0, 3});
+        out.write(new byte[]{3, 0, 'a', 'b', 'c'});
+        out.write("name.json\0comment\0".getBytes(StandardCharsets.US_ASCII));
+        out.write(new byte[]{0, 0});
+        out.write(deflateRaw(content));
+        out.write(trailer(content));
+        byte[] input = out.toByteArray();
+
+        assertArrayEquals(content, codec.decode(input));
+        assertArrayEquals(content, decodeStream(input, 1));
+    }
+
+    @Test
+    void sameResultForEverySplitPoint() throws IOException {
+        byte[] small = "{\"result\":[1,2,3],\"id\":1}".getBytes(StandardCharsets.UTF_8);
+        byte[] input = concat(gzip(small), gzip(small));
+        for (int split = 0; split <= input.length; split++) {
+            List<DataBuffer> buffers = Arrays.asList(
+                    bufferFactory.wrap(Arrays.copyOfRange(input, 0, split)),
+                    bufferFactory.wrap(Arrays.copyOfRange(input, split, input.length)));
+            assertArrayEquals(concat(small, small), join(codec.decode(Flux.fromIterable(buffers), bufferFactory)), "split at " + split);
+        }
+    }
+
+    @Test
+    void streamEncodeMatchesContent() throws IOException {
+        List<DataBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < content.length; i += 1000) {
+            buffers.add(bufferFactory.wrap(Arrays.copyOfRange(content, i, Math.min(content.length, i + 1000))));
+        }
+
+        assertArrayEquals(content, gunzip(join(codec.encode(Flux.fromIterable(buffers), bufferFactory))));
+    }
+
+    @Test
+    void truncatedInputFails() throws IOException {
+        byte[] gzip = gzip(content);
+        for (int length : new int[]{1, 5, 10, gzip.length / 2, gzip.length - 8, gzip.length - 1}) {
+            byte[] truncated = Arrays.copyOf(gzip, length);
+            assertThrows(ZipException.class, () -> codec.decode(truncated));
+            assertThrows(RuntimeException.class, () -> decodeStream(truncated, 3));
+        }
+    }
+
+    @Test
+    void corruptTrailerFails() throws IOException {
+        byte[] gzip = gzip(content);
+        gzip[gzip.length - 5] ^= 1;
+
+        assertThrows(ZipException.class, () -> codec.decode(gzip));
+    }
+
+    @Test
+    void nonGzipInputFails() {
+        assertThrows(ZipException.class, () -> codec.decode("{\"id\":1}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private byte[] decodeStream(byte[] input, int chunkSize) {
+        List<DataBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < input.length; i += chunkSize) {
+            buffers.add(bufferFactory.wrap(Arrays.copyOfRange(input, i, Math.min(input.length, i + chunkSize))));
+        }
+        return join(codec.decode(Flux.fromIterable(buffers), bufferFactory));
+    }
+
+    private static byte[] join(Flux<DataBuffer> flux) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (DataBuffer buffer : flux.collectList().block()) {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] content(int size) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < size; i++) {
+            builder.append("{\"id\":").append(i).append(",\"name\":\"患者").append(i * 7919 % 1000).append("\"},");
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] chunk = new byte[4096];
+            int n;
+            while ((n = gzip.read(chunk)) > 0) {
+                out.write(chunk, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] deflateRaw(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            out.write(chunk, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] trailer(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        byte[] trailer = new byte[8];
+        for (int i = 0; i < 4; i++) {
+            trailer[i] = (byte) (crc.getValue() >> (8 * i));
+            trailer[4 + i] = (byte) (bytes.length >> (8 * i));
+        }
+        return trailer;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
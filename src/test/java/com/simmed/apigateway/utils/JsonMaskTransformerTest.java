@@ -0,0 +1,161 @@
+package com.simmed.apigateway.utils;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class JsonMaskTransformerTest {
+
+    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    @Test
+    void masksStringValueAtAnyDepth() {
+        assertEquals("{\"a\":{\"mobile\":\"138****5678\"},\"name\":\"x\"}",
+                mask("{\"a\":{\"mobile\":\"13812345678\"},\"name\":\"x\"}", "mobile", DataMaskAlgorithm.MOBILE));
+    }
+
+    @Test
+    void untouchedChunkIsReturnedAsIs() {
+        JsonMaskTransformer transformer = new JsonMaskTransformer(fields("mobile", DataMaskAlgorithm.MOBILE));
+        DataBuffer input = buffer("{\"name\":\"x\",\"age\":3}".getBytes(StandardCharsets.UTF_8));
+
+        assertSame(input, transformer.transform(input, bufferFactory));
+    }
+
+    @Test
+    void sameResultForEverySplitPoint() {
+        String json = "{\"list\":[{\"mobile\":\"13812345678\",\"MOBILE\":13812345678}],\"name\":\"张三\\\"\",\"n\":1}";
+        String expected = "{\"list\":[{\"mobile\":\"138****5678\",\"MOBILE\":\"138****5678\"}],\"name\":\"张**\",\"n\":1}";
+        Map<String, DataMaskAlgorithm> fields = fields("mobile", DataMaskAlgorithm.MOBILE);
+        fields.put("name", DataMaskAlgorithm.NAME);
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        for (int split = 0; split <= bytes.length; split++) {
+            String masked = mask(fields, Arrays.copyOfRange(bytes, 0, split), Arrays.copyOfRange(bytes, split, bytes.length));
+            assertEquals(expected, masked, "split at " + split);
+        }
+    }
+
+    @Test
+    void byteByByteFeedMatchesWholeFeed() {
+        byte[] bytes = "{\"idCard\" : 110101199001011234 , \"x\":[1, 2]}".getBytes(StandardCharsets.UTF_8);
+        byte[][] chunks = new byte[bytes.length][];
+        for (int i = 0; i < bytes.length; i++) {
+            chunks[i] = new byte[]{bytes[i]};
+        }
+
+        assertEquals("{\"idCard\" : \"110***********1234\" , \"x\":[1, 2]}",
+                mask(fields("idcard", DataMaskAlgorithm.ID_CARD), chunks));
+    }
+
+    @Test
+    void escapedKeyIsDecodedBeforeMatching() {
+        assertEquals("{\"mo\\u0062ile\":\"138****5678\"}",
+                mask("{\"mo\\u0062ile\":\"13812345678\"}", "mobile", DataMaskAlgorithm.MOBILE));
+    }
+
+    @Test
+    void escapedValueIsMaskedAndReEscaped() {
+        assertEquals("{\"name\":\"\\\"*\"}", mask("{\"name\":\"\\\"a\"}", "name", DataMaskAlgorithm.NAME));
+    }
+
+    @Test
+    void numbersAndBooleansAreMaskedAsStrings() {
+        assertEquals("{\"mobile\":\"138****5678\",\"flag\":\"****\",\"n\":-1.5}",
+                mask("{\"mobile\":13812345678,\"flag\":true,\"n\":-1.5}", "mobile", DataMaskAlgorithm.MOBILE, "flag", DataMaskAlgorithm.ALL));
+        assertEquals("[{\"v\":\"*****\"}]", mask("[{\"v\":false}]", "v", DataMaskAlgorithm.ALL));
+    }
+
+    @Test
+    void nullStaysNull() {
+        assertEquals("{\"mobile\":null,\"a\":1}", mask("{\"mobile\":null,\"a\":1}", "mobile", DataMaskAlgorithm.MOBILE));
+    }
+
+    @Test
+    void nestedContainersUnderMaskedKeyAreMasked() {
+        assertEquals("{\"card\":{\"no\":\"****\",\"bank\":\"**\",\"tags\":[\"*\",\"**\"]},\"x\":\"y\"}",
+                mask("{\"card\":{\"no\":1234,\"bank\":\"ab\",\"tags\":[\"c\",12]},\"x\":\"y\"}", "card", DataMaskAlgorithm.ALL));
+        assertEquals("{\"mobile\":[\"138****5678\",\"139****0000\"]}",
+                mask("{\"mobile\":[\"13812345678\",13900000000]}", "mobile", DataMaskAlgorithm.MOBILE));
+    }
+
+    @Test
+    void innerRuleTakesPrecedenceInsideMaskedContainer() {
+        assertEquals("{\"user\":{\"mobile\":\"138****5678\",\"city\":\"**\"}}",
+                mask("{\"user\":{\"mobile\":\"13812345678\",\"city\":\"bj\"}}", "user", DataMaskAlgorithm.ALL, "mobile", DataMaskAlgorithm.MOBILE));
+    }
+
+    @Test
+    void malformedEscapeIsMaskedAsRawTextWithoutThrowing() {
+        assertEquals("{\"name\":\"a**\",\"k\\q\":1}",
+                mask("{\"name\":\"a\\q\",\"k\\q\":1}", "name", DataMaskAlgorithm.NAME));
+    }
+
+    @Test
+    void truncatedValueIsNotLeaked() {
+        assertEquals("{\"mobile\":\"******", mask("{\"mobile\":\"13812345678", "mobile", DataMaskAlgorithm.MOBILE));
+        assertEquals("{\"mobile\":\"******\"", mask("{\"mobile\":13812345678", "mobile", DataMaskAlgorithm.MOBILE));
+    }
+
+    @Test
+    void inputIsReleasedWhenReplaced() {
+        NettyDataBufferFactory nettyFactory = new NettyDataBufferFactory(UnpooledByteBufAllocator.DEFAULT);
+        JsonMaskTransformer transformer = new JsonMaskTransformer(fields("name", DataMaskAlgorithm.NAME));
+        NettyDataBuffer masked = nettyFactory.wrap("{\"name\":\"a\\q\"}".getBytes(StandardCharsets.UTF_8));
+        NettyDataBuffer untouched = nettyFactory.wrap("{\"x\":1}".getBytes(StandardCharsets.UTF_8));
+
+        transformer.transform(masked, nettyFactory);
+        assertSame(untouched, transformer.transform(untouched, nettyFactory));
+
+        assertEquals(0, masked.getNativeBuffer().refCnt());
+        assertEquals(1, untouched.getNativeBuffer().refCnt());
+    }
+
+    private String mask(String json, Object... rules) {
+        Map<String, DataMaskAlgorithm> fields = new HashMap<>();
+        for (int i = 0; i < rules.length; i += 2) {
+            fields.put((String) rules[i], (DataMaskAlgorithm) rules[i + 1]);
+        }
+        return mask(fields, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String mask(Map<String, DataMaskAlgorithm> fields, byte[]... chunks) {
+        JsonMaskTransformer transformer = new JsonMaskTransformer(fields);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] chunk : chunks) {
+            drain(transformer.transform(buffer(chunk), bufferFactory), out);
+        }
+        DataBuffer rest = transformer.finish(bufferFactory);
+        if (rest != null) {
+            drain(rest, out);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, DataMaskAlgorithm> fields(String name, DataMaskAlgorithm algorithm) {
+        Map<String, DataMaskAlgorithm> fields = new HashMap<>();
+        fields.put(name, algorithm);
+        return fields;
+    }
+
+    private static void drain(DataBuffer buffer, ByteArrayOutputStream out) {
+        byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.read(bytes);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private DataBuffer buffer(byte[] bytes) {
+        return bufferFactory.wrap(bytes);
+    }
+}
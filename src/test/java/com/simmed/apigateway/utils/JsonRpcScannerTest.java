@@ -0,0 +1,141 @@
+package com.simmed.apigateway.utils;
+
+import com.simmed.apigateway.dto.RpcRequestInfo;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonRpcScannerTest {
+
+    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    @Test
+    void readsMethodAndNumericId() {
+        JsonRpcScanner scanner = scan("{\"jsonrpc\":\"2.0\",\"method\":\"User.get\",\"id\":12,\"params\":[{\"a\":1}]}");
+
+        assertTrue(scanner.isDone());
+        RpcRequestInfo info = scanner.result();
+        assertEquals("User.get", info.getMethod());
+        assertEquals("12", info.getId());
+        assertEquals("12", info.getRawId());
+    }
+
+    @Test
+    void recordsStringIdWithQuotesAndPosition() {
+        String json = "{ \"id\" : \"abc\", \"method\":\"User.get\"}";
+        JsonRpcScanner scanner = scan(json);
+
+        assertEquals("abc", scanner.result().getId());
+        assertEquals("\"abc\"", scanner.getRawId());
+        assertEquals("\"abc\"", json.substring((int) scanner.getIdStart(), (int) scanner.getIdEnd()));
+    }
+
+    @Test
+    void skipsParamsBeforeMethodIncludingBracketsInsideStrings() {
+        JsonRpcScanner scanner = scan("{\"params\":[\"x\\\"}]\",{\"method\":\"inner\",\"id\":9}],\"method\":\"Outer.call\",\"id\":1}");
+
+        assertEquals("Outer.call", scanner.result().getMethod());
+        assertEquals("1", scanner.result().getId());
+    }
+
+    @Test
+    void sameResultForEverySplitPoint() {
+        String json = "{\"params\":{\"name\":\"患者\\\\\"},\"method\":\"查询.列表\",\"id\":\"a\\\"b\"}";
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        for (int split = 0; split <= bytes.length; split++) {
+            JsonRpcScanner scanner = new JsonRpcScanner();
+            scanner.feed(buffer(Arrays.copyOfRange(bytes, 0, split)));
+            scanner.feed(buffer(Arrays.copyOfRange(bytes, split, bytes.length)));
+
+            assertTrue(scanner.isDone(), "split at " + split);
+            assertEquals("查询.列表", scanner.result().getMethod(), "split at " + split);
+            assertEquals("a\"b", scanner.result().getId(), "split at " + split);
+            assertEquals("\"a\\\"b\"", scanner.getRawId(), "split at " + split);
+        }
+    }
+
+    @Test
+    void byteByByteFeedMatchesArrayFeed() {
+        byte[] bytes = "{\"id\":null,\"method\":\"A.b\"}".getBytes(StandardCharsets.UTF_8);
+        JsonRpcScanner scanner = new JsonRpcScanner();
+        for (int i = 0; i < bytes.length; i++) {
+            scanner.feed(bytes, i, 1);
+        }
+
+        assertTrue(scanner.isDone());
+        assertEquals("A.b", scanner.result().getMethod());
+        assertNull(scanner.result().getId());
+        assertEquals("null", scanner.getRawId());
+    }
+
+    @Test
+    void unescapesMethod() {
+        assertEquals("a\"bé", scan("{\"method\":\"a\\\"b\\u00e9\",\"id\":1}").result().getMethod());
+    }
+
+    @Test
+    void malformedEscapeIsTreatedAsMissing() {
+        JsonRpcScanner scanner = scan("{\"method\":\"a\\q\",\"id\":1}");
+
+        assertNull(scanner.result().getMethod());
+        assertEquals("1", scanner.result().getId());
+    }
+
+    @Test
+    void escapedKeyIsNotMatched() {
+        assertNull(scan("{\"m\\u0065thod\":\"A.b\",\"id\":1}").result().getMethod());
+    }
+
+    @Test
+    void truncatedInputKeepsWhatWasFound() {
+        JsonRpcScanner scanner = scan("{\"method\":\"A.b\",\"id\":");
+
+        assertFalse(scanner.isDone());
+        assertEquals("A.b", scanner.result().getMethod());
+        assertNull(scanner.getRawId());
+
+        JsonRpcScanner inString = scan("{\"method\":\"A.");
+        assertFalse(inString.isDone());
+        assertNull(inString.result().getMethod());
+    }
+
+    @Test
+    void stopsOnNonObjectBody() {
+        JsonRpcScanner scanner = scan("[{\"method\":\"A.b\"}]");
+
+        assertTrue(scanner.isDone());
+        assertNull(scanner.result().getMethod());
+    }
+
+    @Test
+    void overlongMethodIsIgnored() {
+        char[] name = new char[600];
+        Arrays.fill(name, 'x');
+        assertNull(scan("{\"method\":\"" + new String(name) + "\",\"id\":1}").result().getMethod());
+    }
+
+    @Test
+    void detectsTopLevelError() {
+        assertTrue(scan("{\"id\":1,\"error\":{\"code\":-32000,\"message\":\"x\"}}").hasError());
+        assertFalse(scan("{\"id\":1,\"error\":null,\"result\":{\"error\":1}}").hasError());
+        assertFalse(scan("{\"id\":1,\"result\":{\"error\":{\"code\":1}}}").hasError());
+    }
+
+    private JsonRpcScanner scan(String json) {
+        JsonRpcScanner scanner = new JsonRpcScanner();
+        scanner.feed(buffer(json.getBytes(StandardCharsets.UTF_8)));
+        return scanner;
+    }
+
+    private DataBuffer buffer(byte[] bytes) {
+        return bufferFactory.wrap(bytes);
+    }
+}
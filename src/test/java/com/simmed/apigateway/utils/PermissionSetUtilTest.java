@@ -0,0 +1,73 @@
+package com.simmed.apigateway.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PermissionSetUtilTest {
+
+    private final PermissionSetUtil util = new PermissionSetUtil();
+
+    PermissionSetUtilTest() {
+        ReflectionTestUtils.setField(util, "maximumSize", 100L);
+        util.init();
+        util.register(Arrays.asList("Api-A", "api-b", null));
+    }
+
+    @Test
+    void onlyCatalogIdsAreInterned() {
+        assertEquals(0, util.idOf("api-a"));
+        assertEquals(1, util.idOf("API-B"));
+        assertEquals(-1, util.idOf("unknown"));
+        assertEquals(-1, util.idOf(null));
+
+        PermissionSet set = util.of("[\"API-A\",\"unknown-1\",\"unknown-2\",null]");
+
+        assertEquals(1, set.size());
+        assertTrue(set.contains(util.idOf("api-a")));
+        assertFalse(set.contains(util.idOf("api-b")));
+        //token 中未知的 apiId 不分配编号
+        assertEquals(-1, util.idOf("unknown-1"));
+        util.register(Collections.singletonList("api-c"));
+        assertEquals(2, util.idOf("api-c"));
+    }
+
+    @Test
+    void registeringAgainKeepsIds() {
+        util.register(Arrays.asList("api-b", "API-A"));
+
+        assertEquals(0, util.idOf("api-a"));
+        assertEquals(1, util.idOf("api-b"));
+    }
+
+    @Test
+    void equalSetsAreShared() {
+        assertSame(util.of("[\"api-a\",\"api-b\"]"), util.of("[\"API-B\",\"api-a\",\"other\"]"));
+        assertNull(util.of(null));
+    }
+
+    @Test
+    void setsBuiltBeforeCatalogGrowthAreRebuilt() {
+        String json = "[\"api-a\",\"api-new\"]";
+        PermissionSet before = util.of(json);
+        util.register(Collections.singletonList("api-new"));
+        int newId = util.idOf("api-new");
+
+        assertFalse(before.covers(newId));
+        PermissionSet after = util.of(json);
+        assertNotSame(before, after);
+        assertTrue(after.covers(newId));
+        assertTrue(after.contains(newId));
+        assertTrue(after.contains(util.idOf("api-a")));
+        assertSame(after, util.of(json));
+    }
+}
@@ -0,0 +1,118 @@
+package com.simmed.apigateway.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.handler.predicate.PredicateDefinition;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.http.server.PathContainer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RoutePathIndexTest {
+
+    private final List<Route> routes = new ArrayList<>();
+    private final Map<String, RouteDefinition> definitions = new HashMap<>();
+
+    @Test
+    void doubleWildcardMatchesEveryPath() {
+        route("all", "Path=/**");
+        route("merchants", "Path=/merchants/**");
+        RoutePathIndex index = build();
+
+        assertEquals(Arrays.asList("all"), candidates(index, "/"));
+        assertEquals(Arrays.asList("all"), candidates(index, "/other/path"));
+        assertEquals(Arrays.asList("all", "merchants"), candidates(index, "/merchants"));
+        assertEquals(Arrays.asList("all", "merchants"), candidates(index, "/merchants/1/orders"));
+    }
+
+    @Test
+    void pathVariableMatchesBelowItsPrefix() {
+        route("detail", "Path=/api/{id}/detail");
+        route("partial", "Path=/api/user-{id}");
+        RoutePathIndex index = build();
+
+        assertEquals(Arrays.asList("detail", "partial"), candidates(index, "/api/5/detail"));
+        assertEquals(Arrays.asList("detail", "partial"), candidates(index, "/api/anything"));
+        ///api 之下才是候选, 完整断言再判断段数
+        assertEquals(Arrays.asList("detail", "partial"), candidates(index, "/api"));
+        assertEquals(Arrays.asList(), candidates(index, "/other/5/detail"));
+    }
+
+    @Test
+    void exactPathIgnoresTrailingSlash() {
+        route("exact", "Path=/exact/path");
+        route("slash", "Path=/slash/");
+        route("root", "Path=/");
+        RoutePathIndex index = build();
+
+        assertEquals(Arrays.asList("exact"), candidates(index, "/exact/path"));
+        assertEquals(Arrays.asList("exact"), candidates(index, "/exact/path/"));
+        assertEquals(Arrays.asList("exact"), candidates(index, "/exact//path"));
+        assertEquals(Arrays.asList(), candidates(index, "/exact"));
+        assertEquals(Arrays.asList(), candidates(index, "/exact/path/more"));
+        assertEquals(Arrays.asList("slash"), candidates(index, "/slash"));
+        assertEquals(Arrays.asList("root"), candidates(index, "/"));
+    }
+
+    @Test
+    void candidatesKeepRouteOrder() {
+        route("b-exact", "Path=/b/c");
+        route("no-path", "Host=**.example.com");
+        route("a-prefix", "Path=/b/**");
+        route("multi", "Path=/x/**,/b/c");
+        routes.add(route("code"));
+        route("relative", "Path=b/c");
+        route("last", "Path=/b/c");
+        RoutePathIndex index = build();
+
+        assertEquals(Arrays.asList("b-exact", "no-path", "a-prefix", "multi", "code", "relative", "last"), candidates(index, "/b/c"));
+        assertEquals(Arrays.asList("no-path", "a-prefix", "code", "relative"), candidates(index, "/b/d"));
+        assertEquals(Arrays.asList("no-path", "multi", "code", "relative"), candidates(index, "/x/y"));
+        assertEquals(7, index.size());
+        //没有 Path 断言、代码中定义与相对路径的路由不进入前缀树
+        assertEquals(3, index.unindexedCount());
+    }
+
+    @Test
+    void wildcardInsideSegmentIsTreatedAsPrefix() {
+        route("star", "Path=/files/*.json");
+        route("question", "Path=/v?/items");
+        route("encoded", "Path=/a%20b/c");
+        RoutePathIndex index = build();
+
+        //第一段就含通配符时挂在根节点上
+        assertEquals(Arrays.asList("star", "question", "encoded"), candidates(index, "/files/a.json"));
+        assertEquals(Arrays.asList("question", "encoded"), candidates(index, "/v1/items"));
+        assertEquals(Arrays.asList("question", "encoded"), candidates(index, "/other"));
+    }
+
+    private void route(String id, String predicate) {
+        RouteDefinition definition = new RouteDefinition();
+        definition.setId(id);
+        definition.getPredicates().add(new PredicateDefinition(predicate));
+        definitions.put(id, definition);
+        routes.add(route(id));
+    }
+
+    private static Route route(String id) {
+        return Route.async().id(id).uri("http://localhost").predicate(exchange -> true).build();
+    }
+
+    private RoutePathIndex build() {
+        return RoutePathIndex.build(routes, definitions);
+    }
+
+    private static List<String> candidates(RoutePathIndex index, String path) {
+        List<String> ids = new ArrayList<>();
+        for (Route route : index.candidates(PathContainer.parsePath(path))) {
+            ids.add(route.getId());
+        }
+        return ids;
+    }
+}